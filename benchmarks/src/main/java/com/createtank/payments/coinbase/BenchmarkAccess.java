@@ -0,0 +1,66 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.Page;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/**
+ * Exposes the package-private request encoders and response parsers the client uses, so that the benchmarks measure
+ * the code that runs rather than copies of it. Only part of the benchmarks module
+ */
+public final class BenchmarkAccess {
+
+    private static final ResponseParser<Page<Transaction>> TRANSACTIONS_PAGE = ResponseParsers.page("transactions",
+            "transaction", Transaction::fromJson);
+    private static final ResponseParser<Page<Address>> ADDRESSES_PAGE = ResponseParsers.page("addresses", "address",
+            Address::fromJson);
+
+    private BenchmarkAccess() {
+    }
+
+    public static String encodeParams(Map<String, String> params) throws UnsupportedEncodingException {
+        return RequestClient.encodeParams(params);
+    }
+
+    public static TransportRequest createPostRequest(String method, Map<String, String> params, String accessToken)
+            throws UnsupportedEncodingException {
+        return RequestClient.createUrlRequest(RequestClient.BASE_URL + method, RequestClient.RequestVerb.POST, params,
+                accessToken);
+    }
+
+    public static TransportRequest createGetRequest(String method, Map<String, String> params, String accessToken)
+            throws UnsupportedEncodingException {
+        return RequestClient.createUrlRequest(RequestClient.BASE_URL + method, RequestClient.RequestVerb.GET, params,
+                accessToken);
+    }
+
+    public static Page<Transaction> parseTransactionsPage(byte[] body) throws IOException {
+        return RequestClient.readBody(new ByteArrayInputStream(body), TRANSACTIONS_PAGE);
+    }
+
+    public static Page<Address> parseAddressesPage(byte[] body) throws IOException {
+        return RequestClient.readBody(new ByteArrayInputStream(body), ADDRESSES_PAGE);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import com.createtank.payments.coinbase.CoinbaseApi;
+import com.createtank.payments.coinbase.HttpConnectionPool;
+import com.createtank.payments.coinbase.metrics.ClientMetrics;
+import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.Transfer;
+import com.createtank.payments.coinbase.models.User;
+import com.createtank.payments.coinbase.transport.HttpClientTransport;
+import com.createtank.payments.coinbase.transport.InMemoryTransport;
+import com.createtank.payments.coinbase.transport.UrlConnectionTransport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete api calls: request encoding, the transport, response decoding and model construction.
+ *
+ * "pooled" and "url-connection" send real HTTP requests to a {@link StubServer} on the loopback interface, "in-memory"
+ * swaps the network for an {@link InMemoryTransport} to isolate the client's own overhead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"pooled", "url-connection", "in-memory"})
+    public String transport;
+
+    private StubServer server;
+    private HttpConnectionPool pool;
+    private CoinbaseApi api;
+
+    @Setup
+    public void setup() {
+        String transactions = Payloads.transactionsPage(Payloads.TRANSACTION_PAGE_SIZE);
+        String addresses = Payloads.addressesPage(Payloads.ADDRESS_PAGE_SIZE);
+        String user = Payloads.userResult();
+        String transfer = Payloads.transferResult();
+
+        api = new CoinbaseApi("d4e2b8c1a7f04e29b3c6a0f5e8d7c912");
+        api.setMetrics(ClientMetrics.NONE);
+
+        if (transport.equals("in-memory")) {
+            api.setTransport(new InMemoryTransport()
+                    .respond("GET", "transactions", transactions)
+                    .respond("GET", "addresses", addresses)
+                    .respond("GET", "users", user)
+                    .respond("POST", "buys", transfer));
+            return;
+        }
+
+        try {
+            server = new StubServer()
+                    .respond("GET", "transactions", transactions)
+                    .respond("GET", "addresses", addresses)
+                    .respond("GET", "users", user)
+                    .respond("POST", "buys", transfer)
+                    .start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start the stub server", e);
+        }
+
+        if (transport.equals("pooled")) {
+            pool = new HttpConnectionPool();
+            api.setTransport(new RedirectingTransport(new HttpClientTransport(pool), server.getBaseUrl()));
+        } else {
+            api.setTransport(new RedirectingTransport(new UrlConnectionTransport(), server.getBaseUrl()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null)
+            pool.close();
+        if (server != null)
+            server.close();
+    }
+
+    @Benchmark
+    public Transaction[] transactionsPage() throws IOException {
+        return api.getTransactions(1);
+    }
+
+    @Benchmark
+    public Address[] addressesPage() throws IOException {
+        return api.getAddresses(1, Payloads.ADDRESS_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public User me() throws IOException {
+        return api.me();
+    }
+
+    @Benchmark
+    public Transfer buyWithFees() throws IOException {
+        return api.buyBitcoins(1.0f);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import com.createtank.payments.coinbase.BenchmarkAccess;
+import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.Page;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.Transfer;
+import com.createtank.payments.coinbase.models.User;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures model construction from response bytes, comparing the streaming fromJson(JsonReader) readers with the
+ * JsonObject tree path they replaced. Every benchmark starts from the raw UTF-8 bytes so that decoding is included.
+ * The streaming page benchmarks run the page parsers the paged listings use.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelParsingBenchmark {
+
+    private byte[] transaction;
+    private byte[] transfer;
+    private byte[] user;
+    private byte[] transactionsPage;
+    private byte[] addressesPage;
+
+    @Setup
+    public void setup() {
+        transaction = Payloads.transaction(2).getBytes(Payloads.UTF_8);
+        transfer = Payloads.transfer().getBytes(Payloads.UTF_8);
+        user = Payloads.user(1).getBytes(Payloads.UTF_8);
+        transactionsPage = Payloads.transactionsPage(Payloads.TRANSACTION_PAGE_SIZE).getBytes(Payloads.UTF_8);
+        addressesPage = Payloads.addressesPage(Payloads.ADDRESS_PAGE_SIZE).getBytes(Payloads.UTF_8);
+    }
+
+    private static JsonReader reader(byte[] body) {
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), Payloads.UTF_8));
+    }
+
+    private static JsonObject tree(byte[] body) {
+        return new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(body), Payloads.UTF_8))
+                .getAsJsonObject();
+    }
+
+    //region single models
+    @Benchmark
+    public Transaction transactionStream() throws IOException {
+        return Transaction.fromJson(reader(transaction));
+    }
+
+    @Benchmark
+    public Transaction transactionTree() {
+        return Transaction.fromJson(tree(transaction));
+    }
+
+    @Benchmark
+    public Transfer transferStream() throws IOException {
+        return Transfer.fromJson(reader(transfer));
+    }
+
+    @Benchmark
+    public Transfer transferTree() {
+        return Transfer.fromJson(tree(transfer));
+    }
+
+    @Benchmark
+    public User userStream() throws IOException {
+        return User.fromJson(reader(user));
+    }
+
+    @Benchmark
+    public User userTree() {
+        return User.fromJson(tree(user));
+    }
+    //endregion
+
+    //region pages
+    @Benchmark
+    public Page<Transaction> transactionsPageStream() throws IOException {
+        return BenchmarkAccess.parseTransactionsPage(transactionsPage);
+    }
+
+    @Benchmark
+    public void transactionsPageTree(Blackhole blackhole) {
+        JsonArray transactions = tree(transactionsPage).getAsJsonArray("transactions");
+        for (JsonElement element : transactions)
+            blackhole.consume(Transaction.fromJson(element.getAsJsonObject().getAsJsonObject("transaction")));
+    }
+
+    @Benchmark
+    public Page<Address> addressesPageStream() throws IOException {
+        return BenchmarkAccess.parseAddressesPage(addressesPage);
+    }
+
+    @Benchmark
+    public void addressesPageTree(Blackhole blackhole) {
+        JsonArray addresses = tree(addressesPage).getAsJsonArray("addresses");
+        for (JsonElement element : addresses)
+            blackhole.consume(Address.fromJson(element.getAsJsonObject().getAsJsonObject("address")));
+    }
+    //endregion
+}
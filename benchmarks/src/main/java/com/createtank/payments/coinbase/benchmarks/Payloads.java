@@ -0,0 +1,136 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Realistic response bodies and request params shared by the benchmarks, shaped like the payloads the coinbase api
+ * returns for a full page of each resource.
+ */
+final class Payloads {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The page size the api uses for transactions */
+    static final int TRANSACTION_PAGE_SIZE = 30;
+
+    /** The largest address page the api serves */
+    static final int ADDRESS_PAGE_SIZE = 1000;
+
+    private Payloads() {
+    }
+
+    static String user(int i) {
+        return "{\"id\": \"51ca94f8cc5d3f7b9a00000" + (i % 10) + "\", "
+                + "\"email\": \"user" + i + "@example.com\", "
+                + "\"name\": \"User " + i + "\", "
+                + "\"time_zone\": \"Pacific Time (US & Canada)\", "
+                + "\"native_currency\": \"USD\", "
+                + "\"buy_level\": 1, \"sell_level\": 1, "
+                + "\"balance\": {\"amount\": \"" + i + ".23450000\", \"currency\": \"BTC\"}, "
+                + "\"buy_limit\": {\"amount\": \"10.00000000\", \"currency\": \"BTC\"}, "
+                + "\"sell_limit\": {\"amount\": \"50.00000000\", \"currency\": \"BTC\"}}";
+    }
+
+    static String transaction(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"id\": \"5018f833f8182b129c00002").append(i % 10).append("\", ");
+        sb.append("\"created_at\": \"2013-08-14T20:18:53-07:00\", ");
+        sb.append("\"hsh\": \"9d6a7d1112c3db9de5315b421a5153d71413f5f752aff75bf504b77df4e646a3\", ");
+        sb.append("\"notes\": \"Payment for order #").append(1000 + i).append("\", ");
+        sb.append("\"amount\": {\"amount\": \"-0.").append(10000000 + i).append("\", \"currency\": \"BTC\"}, ");
+        sb.append("\"request\": ").append(i % 5 == 0).append(", ");
+        sb.append("\"status\": \"").append(i % 3 == 0 ? "pending" : "complete").append("\", ");
+        sb.append("\"sender\": ").append(user(i)).append(", ");
+        if (i % 2 == 0)
+            sb.append("\"recipient\": ").append(user(i + 1)).append(", ");
+        sb.append("\"recipient_address\": \"1JSxRRbTcs2ZpsGE2AGnDq1ZFP5q5z2u9").append(i % 10).append("\"}");
+        return sb.toString();
+    }
+
+    static String transactionsPage(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"current_user\": {\"id\": \"5011f33df8182b142400000e\", \"email\": \"user@example.com\", ");
+        sb.append("\"name\": \"User One\"}, ");
+        sb.append("\"balance\": {\"amount\": \"50.00000000\", \"currency\": \"BTC\"}, ");
+        sb.append("\"total_count\": ").append(count * 4).append(", ");
+        sb.append("\"num_pages\": 4, \"current_page\": 1, ");
+        sb.append("\"transactions\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("{\"transaction\": ").append(transaction(i)).append('}');
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    static String addressesPage(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"addresses\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append("{\"address\": {\"address\": \"moLxGrqWNcnGq4A8Caq8EGP4n9GUGWanj").append(i % 10).append("\", ");
+            sb.append("\"callback_url\": \"http://example.com/callback/").append(i).append("\", ");
+            sb.append("\"label\": \"Order ").append(i).append("\", ");
+            sb.append("\"created_at\": \"2013-05-09T23:07:08-07:00\"}}");
+        }
+        sb.append("], \"total_count\": ").append(count).append(", \"num_pages\": 1, \"current_page\": 1}");
+        return sb.toString();
+    }
+
+    static String transfer() {
+        return "{\"type\": \"AchDebit\", \"code\": \"6H7GYLXZ\", \"created_at\": \"2013-01-28T16:08:58-08:00\", "
+                + "\"fees\": {"
+                + "\"coinbase\": {\"cents\": 14, \"currency\": \"USD\"}, "
+                + "\"bank\": {\"cents\": 15, \"currency\": \"USD\"}}, "
+                + "\"payout_date\": \"2013-02-01T18:00:00-08:00\", "
+                + "\"transaction_id\": \"5011f33df8182b142400000e\", "
+                + "\"status\": \"Pending\", "
+                + "\"btc\": {\"amount\": \"1.00000000\", \"currency\": \"BTC\"}, "
+                + "\"subtotal\": {\"amount\": \"13.55\", \"currency\": \"USD\"}, "
+                + "\"total\": {\"amount\": \"13.84\", \"currency\": \"USD\"}, "
+                + "\"description\": \"Paid for with $13.84 from Test xxxxx3111.\"}";
+    }
+
+    static String transferResult() {
+        return "{\"success\": true, \"transfer\": " + transfer() + "}";
+    }
+
+    static String userResult() {
+        return "{\"users\": [{\"user\": " + user(1) + "}]}";
+    }
+
+    /**
+     * Params of the size a send_money call carries
+     */
+    static Map<String, String> sendMoneyParams() {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("api_key", "d4e2b8c1a7f04e29b3c6a0f5e8d7c912");
+        params.put("transaction[to]", "1JSxRRbTcs2ZpsGE2AGnDq1ZFP5q5z2u9x");
+        params.put("transaction[amount]", "1.23400000");
+        params.put("transaction[notes]", "Payment for order #1234");
+        params.put("transaction[user_fee]", "0.0005");
+        params.put("transaction[referrer_id]", "5011f33df8182b142400000e");
+        params.put("transaction[idem]", "9f4a8cb2-0d17-4f3e-b2a6-47c1e4f0b9d3");
+        return params;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import com.createtank.payments.coinbase.transport.Transport;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+import com.createtank.payments.coinbase.transport.TransportResponse;
+
+import java.io.IOException;
+
+/**
+ * Points requests made for the coinbase api at another base url, leaving everything else untouched
+ */
+final class RedirectingTransport implements Transport {
+
+    static final String API_BASE_URL = "https://coinbase.com:443/api/v1/";
+
+    private final Transport delegate;
+    private final String baseUrl;
+
+    RedirectingTransport(Transport delegate, String baseUrl) {
+        this.delegate = delegate;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        String url = request.getUrl();
+        if (url.startsWith(API_BASE_URL))
+            url = baseUrl + url.substring(API_BASE_URL.length());
+
+        return delegate.execute(new TransportRequest(request.getVerb(), url, request.getHeaders(), request.getBody()));
+    }
+}
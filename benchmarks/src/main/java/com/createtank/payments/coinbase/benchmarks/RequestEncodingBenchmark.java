@@ -0,0 +1,59 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import com.createtank.payments.coinbase.BenchmarkAccess;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of turning call params into a request, using the encoders every api call goes through
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestEncodingBenchmark {
+
+    private Map<String, String> params;
+
+    @Setup
+    public void setup() {
+        params = Payloads.sendMoneyParams();
+    }
+
+    @Benchmark
+    public String encodeParams() throws UnsupportedEncodingException {
+        return BenchmarkAccess.encodeParams(params);
+    }
+
+    @Benchmark
+    public TransportRequest postRequest() throws UnsupportedEncodingException {
+        return BenchmarkAccess.createPostRequest("transactions/send_money", params, "token");
+    }
+
+    @Benchmark
+    public TransportRequest getRequest() throws UnsupportedEncodingException {
+        return BenchmarkAccess.createGetRequest("transactions", params, "token");
+    }
+}
@@ -0,0 +1,109 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server answering coinbase api paths with canned keep-alive responses, so end-to-end calls measure the
+ * client rather than the network
+ */
+final class StubServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> responses = new HashMap<String, byte[]>();
+
+    StubServer() throws IOException {
+        //without TCP_NODELAY the JDK server's separate header and body writes stall on delayed ACKs (~40ms a call)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+    }
+
+    /**
+     * Registers a 200 json response
+     * @param verb the HTTP verb to match
+     * @param path the path relative to /api/v1/
+     * @param body the response body
+     * @return this server
+     */
+    StubServer respond(String verb, String path, String body) {
+        responses.put(verb + " /api/v1/" + path, body.getBytes(Payloads.UTF_8));
+        return this;
+    }
+
+    StubServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the url the api base url should be rewritten to, ending in /api/v1/
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v1/";
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            //drain the request so the connection can be reused
+        }
+        in.close();
+
+        byte[] body = responses.get(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -16,41 +16,109 @@ limitations under the License.
 
 package com.createtank.payments.coinbase;
 
+import com.createtank.payments.coinbase.button.ButtonRegistry;
+import com.createtank.payments.coinbase.cache.ResponseCache;
+import com.createtank.payments.coinbase.circuit.CircuitBreaker;
+import com.createtank.payments.coinbase.exceptions.HttpResponseException;
 import com.createtank.payments.coinbase.exceptions.UnsupportedRequestVerbException;
+import com.createtank.payments.coinbase.hedge.HedgePolicy;
+import com.createtank.payments.coinbase.journal.JournalEntry;
+import com.createtank.payments.coinbase.journal.ReconcileResult;
+import com.createtank.payments.coinbase.journal.WriteJournal;
+import com.createtank.payments.coinbase.metrics.ClientMetrics;
+import com.createtank.payments.coinbase.metrics.DefaultClientMetrics;
 import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.Money;
+import com.createtank.payments.coinbase.models.Page;
 import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.TransactionStatus;
 import com.createtank.payments.coinbase.models.Transfer;
 import com.createtank.payments.coinbase.models.User;
-import com.google.gson.JsonArray;
+import com.createtank.payments.coinbase.payout.PayoutInstruction;
+import com.createtank.payments.coinbase.payout.PayoutListener;
+import com.createtank.payments.coinbase.payout.PayoutResult;
+import com.createtank.payments.coinbase.ratelimit.RateLimiter;
+import com.createtank.payments.coinbase.retry.RetryPolicy;
+import com.createtank.payments.coinbase.store.TransactionStore;
+import com.createtank.payments.coinbase.sync.SyncResult;
+import com.createtank.payments.coinbase.sync.SyncWatermark;
+import com.createtank.payments.coinbase.transport.HttpClientTransport;
+import com.createtank.payments.coinbase.transport.Transport;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+import com.createtank.payments.coinbase.transport.TransportResponse;
+import com.createtank.payments.coinbase.transport.UrlConnectionTransport;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
-
-import javax.net.ssl.HttpsURLConnection;
+
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.util.*;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 public class CoinbaseApi {
 
     private static final String OAUTH_BASE_URL = "https://coinbase.com:443/oauth";
 
+    /**
+     * The number of pages fetched ahead by the iterate* methods unless specified
+     */
+    public static final int DEFAULT_PREFETCH = 2;
+
+    /**
+     * How long before its expires_in deadline an access token is refreshed in the background, unless configured
+     */
+    public static final long DEFAULT_REFRESH_MARGIN_SECONDS = 60;
+
+    /**
+     * The number of payouts sendPayouts sends at once unless specified
+     */
+    public static final int DEFAULT_PAYOUT_CONCURRENCY = 4;
+
+    /**
+     * The number of transactions syncTransactions asks for when polling from a watermark, which in the steady state
+     * covers everything created since the previous poll
+     */
+    public static final int SYNC_POLL_LIMIT = 10;
+
+    /**
+     * The largest page size the list endpoints accept, used when reading many pages
+     */
+    static final int MAX_PAGE_LIMIT = 1000;
+
+    /**
+     * How far back past the oldest unresolved journal entry reconcileJournal searches, allowing for clock skew
+     */
+    private static final long RECONCILE_SKEW_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     private String clientId;
     private String clientSecret;
     private String redirectUrl;
-    private String accessToken;
-    private String refreshToken;
+    private final AtomicReference<OAuthTokens> tokens = new AtomicReference<OAuthTokens>(OAuthTokens.NONE);
+    private final Object refreshLock = new Object();
+    private CompletableFuture<Boolean> refreshInFlight;
+    private boolean refreshSending;
+    private volatile long refreshMarginNanos = TimeUnit.SECONDS.toNanos(DEFAULT_REFRESH_MARGIN_SECONDS);
     private String apiKey;
     private boolean allowSecure;
+    private HttpConnectionPool connectionPool;
+    private Transport transport;
+    private ClientMetrics metrics = new DefaultClientMetrics();
+    private boolean loggingEnabled;
+    private Executor prefetchExecutor;
+    private ResponseCache responseCache;
+    private ButtonRegistry buttonRegistry;
+    private RateLimiter rateLimiter;
+    private RetryPolicy retryPolicy = RetryPolicy.getDefault();
+    private HedgePolicy hedgePolicy;
+    private CircuitBreaker circuitBreaker;
+    private WriteJournal writeJournal;
 
     public CoinbaseApi(String clientId, String clientSecret, String redirectUrl) {
         this.clientId = clientId;
@@ -64,8 +132,7 @@ public class CoinbaseApi {
         this.clientId = clientId;
         this.clientSecret = clientSecret;
         this.redirectUrl = redirectUrl;
-        this.accessToken = accessToken;
-        this.refreshToken = refreshToken;
+        this.tokens.set(new OAuthTokens(accessToken, refreshToken));
         allowSecure = true;
     }
 
@@ -88,11 +155,19 @@ public class CoinbaseApi {
     }
 
     public String getAccessToken() {
-        return accessToken;
+        return tokens.get().getAccessToken();
     }
 
     public String getRefreshToken() {
-        return refreshToken;
+        return tokens.get().getRefreshToken();
+    }
+
+    /**
+     * Sets how long before the access token's expires_in deadline it is refreshed in the background. Calls made in
+     * that window keep using the current token instead of waiting for the refresh
+     */
+    public void setRefreshMargin(long margin, TimeUnit unit) {
+        this.refreshMarginNanos = unit.toNanos(margin);
     }
 
     public String getApiKey() {
@@ -106,6 +181,251 @@ public class CoinbaseApi {
     public void allowSecure(boolean allowSecure) {
         this.allowSecure = allowSecure;
     }
+
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Routes all HttpClient requests made by this instance through a pool of keep-alive connections. The pool may be
+     * shared between several CoinbaseApi instances and is not closed by this class. Pass null to go back to a new
+     * connection per request.
+     * @param connectionPool the pool to use, for example {@link HttpConnectionPool#getShared()}
+     */
+    public void setConnectionPool(HttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * @return the transport requests are sent with. Unless one has been set explicitly, this is an
+     * {@link HttpClientTransport} over the connection pool, or an {@link UrlConnectionTransport} when
+     * allowSecure is false
+     */
+    public Transport getTransport() {
+        Transport transport = this.transport;
+        if (transport != null)
+            return transport;
+
+        return allowSecure ? new HttpClientTransport(connectionPool) : new UrlConnectionTransport();
+    }
+
+    /**
+     * Sends all requests made by this instance through the given transport, for example an
+     * {@link com.createtank.payments.coinbase.transport.InMemoryTransport} when benchmarking or testing. Pass null to
+     * go back to the transport chosen by allowSecure and the connection pool.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return the metrics every request is recorded to. Unless replaced, this is a {@link DefaultClientMetrics}
+     * whose snapshot() can be scraped
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Replaces the metrics every request is recorded to
+     * @param metrics the metrics implementation, or {@link ClientMetrics#NONE} to record nothing
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics != null ? metrics : ClientMetrics.NONE;
+    }
+
+    public boolean isLoggingEnabled() {
+        return loggingEnabled;
+    }
+
+    /**
+     * Prints json responses to stdout. Off by default; meant for debugging only
+     */
+    public void setLoggingEnabled(boolean loggingEnabled) {
+        this.loggingEnabled = loggingEnabled;
+    }
+
+    /**
+     * @return the executor page prefetches, proactive token refreshes and hedged reads run on. Unless one has been
+     * set, this is a shared cached pool of daemon threads
+     */
+    public Executor getPrefetchExecutor() {
+        Executor executor = this.prefetchExecutor;
+        return executor != null ? executor : PageIterator.defaultExecutor();
+    }
+
+    /**
+     * Runs the page prefetches of {@link PagedIterable}s created by this instance, proactive token refreshes and
+     * hedged reads on the given executor. Pass null to go back to the shared default pool.
+     */
+    public void setPrefetchExecutor(Executor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Caches the responses of me(), getTransaction(id) and getAddresses(...) in the given cache. Writes made through
+     * this instance invalidate the entries they affect. Off by default; pass null to turn caching off again.
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public ButtonRegistry getButtonRegistry() {
+        return buttonRegistry;
+    }
+
+    /**
+     * Reuses the buttons makeButton(...) creates with the same parameters, from the given registry. Off by default;
+     * pass null to create a new button on every call again.
+     */
+    public void setButtonRegistry(ButtonRegistry buttonRegistry) {
+        this.buttonRegistry = buttonRegistry;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Paces every request made by this instance with the given limiter. Share the limiter between instances using the
+     * same credential, for example {@link RateLimiter#forCredential(String)}. Off by default; pass null to send
+     * requests as soon as they are made again.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return the policy failed requests are retried under. Unless replaced, this is {@link RetryPolicy#getDefault()},
+     * whose retry budget is shared by every instance using it
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Replaces the policy failed requests are retried under
+     * @param retryPolicy the policy, or {@link RetryPolicy#NONE} to surface every failure straight away
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.NONE;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * Hedges slow reads under the given policy, by default me() and getTransaction(id): once a read has taken longer
+     * than most recent ones, it is sent again and the first answer wins. Hedges run on the prefetch executor. Off by
+     * default; pass null to turn hedging off again.
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Fails requests fast with a {@link com.createtank.payments.coinbase.exceptions.CircuitOpenException} while the
+     * given breaker has the circuit of their endpoint open. Off by default; pass null to send every request again.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public WriteJournal getWriteJournal() {
+        return writeJournal;
+    }
+
+    /**
+     * Records every money moving write made by this instance (sendMoney, requestMoney, buyBitcoins, sellBitcoin and
+     * sendPayouts) in the given journal: its intent, synced to disk before the write is sent, and its outcome once
+     * known. After a crash, call {@link #reconcileJournal()} before making new writes. Writes made through a
+     * CoinbaseAsyncApi wrapping this instance are journaled too. Off by default; pass null to stop journaling.
+     */
+    public void setWriteJournal(WriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
+    /**
+     * Creates the key a money moving write is sent with. Retries of the write reuse it, so that coinbase can tell a
+     * repeated request from a new one
+     */
+    static String newIdempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Posts a money moving write, recording it in the journal when one is set: the intent before it is sent and the
+     * outcome once known. A write that fails after it was handed to the transport, without a refusal from coinbase,
+     * stays unresolved, since it may have gone through. One that failed before, such as on an open circuit or while
+     * waiting for the rate limiter, is recorded as failed.
+     * @param reference the id to record for an accepted write
+     */
+    private <T> ResponseParsers.WriteResult<T> postMoneyWrite(String method, Map<String, String> params,
+                                                              String idempotencyKey,
+                                                              ResponseParser<ResponseParsers.WriteResult<T>> parser,
+                                                              Function<T, String> reference) throws IOException {
+        WriteJournal journal = writeJournal;
+        if (journal == null)
+            return RequestClient.post(this, method, params, currentAccessToken(), idempotencyKey, parser, null);
+
+        //a token refresh that fails here leaves nothing to journal
+        String accessToken = currentAccessToken();
+
+        //the journal lives on disk, so the api key stays out of it
+        Map<String, String> recorded = new LinkedHashMap<String, String>(params);
+        recorded.remove("api_key");
+        journal.recordIntent(idempotencyKey, method, recorded);
+
+        ResponseParsers.WriteResult<T> result;
+        AtomicBoolean sent = new AtomicBoolean();
+        try {
+            result = RequestClient.post(this, method, params, accessToken, idempotencyKey, parser, sent);
+        } catch (IOException | RuntimeException e) {
+            boolean refused = e instanceof HttpResponseException && ((HttpResponseException) e).isRejection();
+            if (refused || !sent.get())
+                journal.recordOutcome(idempotencyKey, WriteJournal.Outcome.FAILED, null);
+            throw e;
+        }
+
+        if (result.success && result.value != null)
+            journal.recordOutcome(idempotencyKey, WriteJournal.Outcome.COMPLETED, reference.apply(result.value));
+        else
+            journal.recordOutcome(idempotencyKey, WriteJournal.Outcome.FAILED, null);
+
+        return result;
+    }
+
+    private <T> T cached(String endpoint, String key, ResponseCache.Loader<T> loader) throws IOException {
+        ResponseCache cache = responseCache;
+        return cache != null ? cache.get(endpoint, key, loader) : loader.load();
+    }
+
+    /**
+     * Caches a snapshot of a mutable model rather than the model, so that every caller gets a model of its own
+     */
+    private <T> T cachedCopy(String endpoint, String key, ModelSnapshot<T> snapshot, ResponseCache.Loader<T> loader)
+            throws IOException {
+        ResponseCache cache = responseCache;
+        if (cache == null)
+            return loader.load();
+
+        return snapshot.thaw(cache.get(endpoint, key, () -> snapshot.freeze(loader.load())));
+    }
+
+    void invalidate(String key) {
+        ResponseCache cache = responseCache;
+        if (cache != null)
+            cache.invalidate(key);
+    }
     //endregion
 
     //region auth
@@ -136,108 +456,193 @@ public class CoinbaseApi {
      */
     public boolean authenticate(String code) throws IOException {
         RequestClient.disableCertificateValidation();
-        if (allowSecure) {
-            System.out.println("Using default client");
-            List<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
-            params.add(new BasicNameValuePair("grant_type", "authorization_code"));
-            params.add(new BasicNameValuePair("redirect_uri", redirectUrl));
-            params.add(new BasicNameValuePair("code", code));
-
-            return doTokenRequest(params);
-        } else {
-            Map<String, String> params = new HashMap<String, String>();
-            params.put("grant_type", "authorization_code");
-            params.put("redirect_uri", URLEncoder.encode(redirectUrl, "UTF-8"));
-            params.put("code", code);
-
-            return doTokenRequest(params);
-        }
-    }
-
-    private boolean doTokenRequest(Collection<BasicNameValuePair> params) throws IOException {
-        HttpClient client = HttpClientBuilder.create().build();
-        HttpPost post = new HttpPost(OAUTH_BASE_URL + "/token");
-        List<BasicNameValuePair> paramBody = new ArrayList<BasicNameValuePair>();
-        paramBody.add(new BasicNameValuePair("client_id", clientId));
-        paramBody.add(new BasicNameValuePair("client_secret", clientSecret));
-        paramBody.addAll(params);
-        post.setEntity(new UrlEncodedFormEntity(paramBody, "UTF-8"));
-        HttpResponse response = client.execute(post);
-        int code = response.getStatusLine().getStatusCode();
-
-        if (code == 401) {
-            return false;
-        } else if (code != 200) {
-            throw new IOException("Got HTTP response code " + code);
-        }
-        String responseString = EntityUtils.toString(response.getEntity());
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("grant_type", "authorization_code");
+        params.put("redirect_uri", redirectUrl);
+        params.put("code", code);
 
-        JsonParser parser = new JsonParser();
-        JsonObject content = (JsonObject) parser.parse(responseString);
-        System.out.print("content: " + content.toString());
-        accessToken = content.get("access_token").getAsString();
-        refreshToken = content.get("refresh_token").getAsString();
-        return true;
+        return doTokenRequest(params);
     }
 
-    private boolean doTokenRequest(Map<String, String> params)
-            throws IOException {
-        Map<String, String> paramsBody = new HashMap<String, String>();
+    private boolean doTokenRequest(Map<String, String> params) throws IOException {
+        Map<String, String> paramsBody = new LinkedHashMap<String, String>();
         paramsBody.put("client_id", clientId);
         paramsBody.put("client_secret", clientSecret);
         paramsBody.putAll(params);
 
-        String bodyStr = RequestClient.createRequestParams(paramsBody);
-        System.out.println(bodyStr);
-        HttpURLConnection conn = (HttpsURLConnection) new URL(OAUTH_BASE_URL + "/token").openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        OutputStreamWriter writer = new OutputStreamWriter(conn.getOutputStream());
-        writer.write(bodyStr);
-        writer.flush();
-        writer.close();
-
-        int code = conn.getResponseCode();
-
-        if (code == 401) {
-            return false;
-        } else if (code != 200) {
-            throw new IOException("Got HTTP response code " + code);
+        TransportRequest request = RequestClient.createUrlRequest(OAUTH_BASE_URL + "/token",
+                RequestClient.RequestVerb.POST, paramsBody, null);
+        JsonObject content;
+        TransportResponse response = getTransport().execute(request);
+        try {
+            int code = response.getStatusCode();
+
+            if (code == 401) {
+                return false;
+            } else if (code != 200) {
+                throw new IOException("Got HTTP response code " + code);
+            }
+
+            content = RequestClient.readBody(response.getBody(), RequestClient.TREE_PARSER);
+        } finally {
+            response.close();
+        }
+
+        String accessToken = content.get("access_token").getAsString();
+        String refreshToken = content.get("refresh_token").getAsString();
+        if (content.has("expires_in") && !content.get("expires_in").isJsonNull()) {
+            long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(content.get("expires_in").getAsLong());
+            tokens.set(new OAuthTokens(accessToken, refreshToken, expiresAt));
+        } else {
+            tokens.set(new OAuthTokens(accessToken, refreshToken));
         }
-        String response = RequestClient.getResponseBody(conn.getInputStream());
 
-        JsonParser parser = new JsonParser();
-        JsonObject content = (JsonObject) parser.parse(response);
-        System.out.print("content: " + content.toString());
-        accessToken = content.get("access_token").getAsString();
-        refreshToken = content.get("refresh_token").getAsString();
         return true;
     }
 
     /**
      * refreshes the client's access token. This method should only be used when api_key auth is not used. After a
-     * successful refresh attempt, the accessToken and refreshToken fields will be updated to contain the new values
+     * successful refresh attempt, the accessToken and refreshToken fields will be updated to contain the new values.
+     * Concurrent callers share a single refresh request and all receive its result.
      * @return whether or not the refresh was successful.
      * @throws IOException
      */
     public boolean refreshAccessToken() throws IOException  {
+        return awaitRefresh(startRefresh());
+    }
 
-        if (allowSecure) {
-            List<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
-            params.add(new BasicNameValuePair("grant_type", "refresh_token"));
-            params.add(new BasicNameValuePair("refresh_token", refreshToken));
+    /**
+     * Refreshes the access token after a request made with failedAccessToken was rejected with a 401. If another
+     * caller has already replaced that token, nothing is sent and the new token is used as is.
+     * @return whether a valid token is available now
+     */
+    boolean refreshAccessToken(String failedAccessToken) throws IOException {
+        CompletableFuture<Boolean> refresh;
+        synchronized (refreshLock) {
+            String current = tokens.get().getAccessToken();
+            if (current != null && !current.equals(failedAccessToken))
+                return true;
+
+            refresh = startRefresh();
+        }
 
-            return doTokenRequest(params);
-        } else {
-            Map<String, String> params = new HashMap<String, String>();
-            params.put("grant_type", "refresh_token");
-            params.put("refresh_token", refreshToken);
+        return awaitRefresh(refresh);
+    }
+
+    /**
+     * @return the access token to send with a request, or null with api key auth. A token inside the refresh margin is
+     * still returned while a background refresh replaces it; only an expired token makes the caller wait
+     */
+    String currentAccessToken() throws IOException {
+        OAuthTokens current = tokens.get();
+        if (usableTokens(current) != null)
+            return current.getAccessToken();
+
+        refreshAccessToken(current.getAccessToken());
+        return tokens.get().getAccessToken();
+    }
+
+    /**
+     * @return the tokens whose access token to send, or null if it has expired and must be refreshed first
+     */
+    private OAuthTokens usableTokens(final OAuthTokens current) {
+        if (!current.hasExpiry() || current.getRefreshToken() == null)
+            return current;
+
+        long remaining = current.nanosUntilExpiry(System.nanoTime());
+        if (remaining <= 0)
+            return null;
+
+        if (remaining <= refreshMarginNanos) {
+            final CompletableFuture<Boolean> refresh;
+            final boolean owner;
+            synchronized (refreshLock) {
+                owner = refreshInFlight == null && tokens.get() == current;
+                refresh = owner ? startRefresh() : null;
+            }
+
+            if (owner) {
+                //the request goes out with the current, still valid, token
+                getPrefetchExecutor().execute(() -> {
+                    try {
+                        awaitRefresh(refresh);
+                    } catch (IOException e) {
+                        //the next call, or a 401, retries the refresh
+                    }
+                });
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Joins the refresh in flight or registers a new one. Only the caller that registers a refresh sends it, from
+     * awaitRefresh; everyone else waits for its result
+     */
+    private CompletableFuture<Boolean> startRefresh() {
+        synchronized (refreshLock) {
+            if (refreshInFlight == null)
+                refreshInFlight = new CompletableFuture<Boolean>();
+
+            return refreshInFlight;
+        }
+    }
+
+    private boolean awaitRefresh(CompletableFuture<Boolean> refresh) throws IOException {
+        boolean owner = false;
+        synchronized (refreshLock) {
+            if (refresh == refreshInFlight && !refresh.isDone() && !refreshSending) {
+                refreshSending = true;
+                owner = true;
+            }
+        }
 
-            return doTokenRequest(params);
+        if (owner) {
+            try {
+                Map<String, String> params = new LinkedHashMap<String, String>();
+                params.put("grant_type", "refresh_token");
+                params.put("refresh_token", tokens.get().getRefreshToken());
+
+                refresh.complete(doTokenRequest(params));
+            } catch (IOException | RuntimeException e) {
+                refresh.completeExceptionally(e);
+            } finally {
+                synchronized (refreshLock) {
+                    refreshInFlight = null;
+                    refreshSending = false;
+                }
+            }
+        }
+
+        try {
+            return refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the access token refresh");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IOException(cause);
         }
     }
     //endregion
 
+    /**
+     * Creates a request parameter map containing the api key, when api key auth is used
+     */
+    Map<String, String> createParams() {
+        Map<String, String> params = new HashMap<String, String>();
+        if (apiKey != null)
+            params.put("api_key", apiKey);
+
+        return params;
+    }
+
     //region Users
     /**
      * Get current user
@@ -245,11 +650,8 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public User me() throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
-        JsonObject response = RequestClient.get(this, "users", params, accessToken);
-        return User.fromJson(response.get("users").getAsJsonArray().get(0).getAsJsonObject().getAsJsonObject("user"));
+        return cachedCopy(ResponseCache.USERS, ResponseCache.USERS, ModelSnapshot.USER,
+                () -> RequestClient.get(this, "users", createParams(), currentAccessToken(), ResponseParsers.USER));
     }
     //endregion
 
@@ -264,25 +666,91 @@ public class CoinbaseApi {
      * @return the list of bitcoin addresses associated with the current account
      * @throws IOException
      */
-    public Address[] getAddresses(int page, int limit, String query) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+    public Address[] getAddresses(final int page, final int limit, final String query) throws IOException {
+        Address[] addresses = cached(ResponseCache.ADDRESSES, "addresses?page=" + page + "&limit=" + limit
+                + (query != null ? "&query=" + query : ""),
+                () -> RequestClient.get(this, "addresses", createAddressesParams(page, limit, query),
+                        currentAccessToken(), ResponseParsers.ADDRESSES));
+
+        //the cached array is shared, so callers get their own copy
+        return responseCache != null ? addresses.clone() : addresses;
+    }
+
+    /**
+     * Streams bitcoin addresses associated with the current account to a listener as they are read from the
+     * response, without holding the whole page in memory
+     * @param page the page of addresses to retrieve. Can be used to page through results
+     * @param limit the maximum number of addresses to retrieve. Can't exceed 1000
+     * @param query string match to filter addresses. Matches the address itself and also
+     * if the use has set a ‘label’ on the address.
+     * @param listener receives each address in the page
+     * @throws IOException
+     */
+    public void getAddresses(int page, int limit, String query, ModelListener<? super Address> listener)
+            throws IOException {
+        RequestClient.get(this, "addresses", createAddressesParams(page, limit, query), currentAccessToken(),
+                ResponseParsers.list("addresses", "address", Address::fromJson, listener));
+    }
+
+    /**
+     * Retrieves one page of bitcoin addresses together with the paging fields of the response
+     * @param page the page of addresses to retrieve, starting at 1
+     * @param limit the maximum number of addresses per page. Can't exceed 1000
+     * @param query string match to filter addresses, or null
+     * @return the page of addresses
+     * @throws IOException
+     */
+    public Page<Address> getAddressesPage(int page, int limit, String query) throws IOException {
+        return RequestClient.get(this, "addresses", createAddressesParams(page, limit, query), currentAccessToken(),
+                ResponseParsers.page("addresses", "address", Address::fromJson));
+    }
+
+    /**
+     * Iterates over every bitcoin address associated with the current account, fetching the following pages in the
+     * background while the current one is consumed
+     * @param limit the number of addresses per page. Can't exceed 1000
+     * @param query string match to filter addresses, or null
+     * @param prefetch the number of pages to fetch ahead of the one being consumed. 0 fetches each page on demand
+     * @return an iterable that walks all pages
+     */
+    public PagedIterable<Address> iterateAddresses(final int limit, final String query, int prefetch) {
+        return new PagedIterable<Address>(page -> getAddressesPage(page, limit, query), prefetch,
+                getPrefetchExecutor());
+    }
+
+    /**
+     * Iterates over every bitcoin address associated with the current account, 1000 per page
+     * @param query string match to filter addresses, or null
+     * @return an iterable that walks all pages, fetching {@link #DEFAULT_PREFETCH} pages ahead
+     */
+    public PagedIterable<Address> iterateAddresses(String query) {
+        return iterateAddresses(1000, query, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves every bitcoin address associated with the current account. The first page is read to learn the number
+     * of pages, then the rest are fetched concurrently on the prefetch executor. A failed page is retried on its own
+     * under the retry policy.
+     * @param query string match to filter addresses, or null
+     * @param parallelism the maximum number of pages fetched at the same time
+     * @return all addresses, in the order the api pages them
+     * @throws IOException if a page still fails after retrying
+     */
+    public Address[] getAllAddresses(final String query, int parallelism) throws IOException {
+        List<Address> addresses = new PageCollector<Address>(page -> getAddressesPage(page, 1000, query),
+                parallelism, getPrefetchExecutor()).collect();
+
+        return addresses.toArray(new Address[addresses.size()]);
+    }
+
+    Map<String, String> createAddressesParams(int page, int limit, String query) {
+        Map<String, String> params = createParams();
         params.put("page", Integer.toString(page));
         params.put("limit", Integer.toString(limit));
         if (query != null)
             params.put("query", query);
 
-        JsonObject response = RequestClient.get(this, "addresses", params, accessToken);
-        JsonArray addresses = response.getAsJsonArray("addresses");
-        int size = addresses.size();
-        Address[] result = new Address[size];
-        for (int i = 0; i < size; ++i) {
-            JsonObject addy = addresses.get(i).getAsJsonObject().getAsJsonObject("address");
-            result[i] = Address.fromJson(addy);
-        }
-
-        return result;
+        return params;
     }
 
     /**
@@ -324,63 +792,122 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public Address generateReceiveAddress() throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+        return generateReceiveAddress(null, null);
+    }
+
+    /**
+     * Generates a new bitcoin receive address for the user.
+     * @param callbackUrl the url coinbase posts to when the address receives a payment, or null
+     * @param label a label for the address, or null
+     * @return the newly generated bitcoind address
+     * @throws IOException
+     */
+    public Address generateReceiveAddress(String callbackUrl, String label) throws IOException {
+        Map<String, String> params = createParams();
+        if (callbackUrl != null)
+            params.put("address[callback_url]", callbackUrl);
+
+        if (label != null)
+            params.put("address[label]", label);
+
+        Address address = RequestClient.post(this, "account/generate_receive_address", params,
+                currentAccessToken(), ResponseParsers.GENERATED_ADDRESS);
 
-        JsonObject response = RequestClient.post(this, "account/generate_receive_address", params, accessToken);
-        boolean success = response.get("success").getAsBoolean();
-        System.out.println(response.toString());
-        return success ? Address.fromJson(response) : null;
+        ResponseCache cache = responseCache;
+        if (cache != null)
+            cache.invalidateEndpoint(ResponseCache.ADDRESSES);
+
+        return address;
     }
     //endregion
 
     //region Buys
 
     /**
-     * Purchase bitcoin by debiting the user's U.S. bank account.
+     * Purchase bitcoin by debiting the user's U.S. bank account. Never retried, since coinbase has no idempotency key
+     * for buys: a buy that fails with a network error or a 5xx may still have gone through.
      * @param qty the number of bitcoins to buy
      * @return A Transfer object containing information about the purchase
      * @throws IOException
      */
     public Transfer buyBitcoins(float qty) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+        return buyBitcoins(createTransferParams(qty));
+    }
 
-        params.put("qty", Float.toString(qty));
-        params.put("agree_btc_amount_varies", Boolean.toString(true));
+    /**
+     * Purchase bitcoin by debiting the user's U.S. bank account. Never retried, since coinbase has no idempotency key
+     * for buys: a buy that fails with a network error or a 5xx may still have gone through.
+     * @param qty the amount of BTC to buy
+     * @return A Transfer object containing information about the purchase
+     * @throws IOException
+     */
+    public Transfer buyBitcoins(Money qty) throws IOException {
+        return buyBitcoins(createTransferParams(qty));
+    }
 
-        JsonObject response = RequestClient.post(this, "buys", params, accessToken);
-        boolean success = response.get("success").getAsBoolean();
+    private Transfer buyBitcoins(Map<String, String> params) throws IOException {
+        ResponseParsers.WriteResult<Transfer> result = postMoneyWrite("buys", params,
+                newIdempotencyKey(), ResponseParsers.TRANSFER_WRITE, Transfer::getTransactionId);
+        invalidate(ResponseCache.USERS);
 
-        return success ? Transfer.fromJson(response.getAsJsonObject("transfer")) : null;
+        return result.success ? result.value : null;
     }
     //endregion
 
     //region Sells
     /**
-     * Sell bitcoin and receive a credit to the user's U.S. bank account.
+     * Sell bitcoin and receive a credit to the user's U.S. bank account. Never retried, since coinbase has no
+     * idempotency key for sells: a sale that fails with a network error or a 5xx may still have gone through.
      * @param qty the number of bitcoins to sell
      * @return A Transfer object containing information about the sale.
      * @throws IOException
      */
     public Transfer sellBitcoin(float qty) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
-        params.put("qty", Float.toString(qty));
-        params.put("agree_btc_amount_varies", Boolean.toString(true));
+        return sellBitcoin(createTransferParams(qty));
+    }
 
-        JsonObject response = RequestClient.post(this, "sells", params, accessToken);
-        boolean success = response.get("success").getAsBoolean();
+    /**
+     * Sell bitcoin and receive a credit to the user's U.S. bank account. Never retried, since coinbase has no
+     * idempotency key for sells: a sale that fails with a network error or a 5xx may still have gone through.
+     * @param qty the amount of BTC to sell
+     * @return A Transfer object containing information about the sale.
+     * @throws IOException
+     */
+    public Transfer sellBitcoin(Money qty) throws IOException {
+        return sellBitcoin(createTransferParams(qty));
+    }
+
+    private Transfer sellBitcoin(Map<String, String> params) throws IOException {
+        ResponseParsers.WriteResult<Transfer> result = postMoneyWrite("sells", params,
+                newIdempotencyKey(), ResponseParsers.TRANSFER_WRITE, Transfer::getTransactionId);
+        invalidate(ResponseCache.USERS);
+
+        return result.success ? result.value : null;
+    }
+
+    Map<String, String> createTransferParams(float qty) {
+        //Float.toString writes small quantities in scientific notation, such as 1.0E-4
+        return createTransferParams(new BigDecimal(Float.toString(qty)).stripTrailingZeros().toPlainString());
+    }
+
+    Map<String, String> createTransferParams(Money qty) {
+        if (!qty.isBtc())
+            throw new IllegalArgumentException("qty must be an amount of BTC, not " + qty.getCurrency());
+
+        return createTransferParams(qty.toPlainString());
+    }
+
+    private Map<String, String> createTransferParams(String qty) {
+        Map<String, String> params = createParams();
+        params.put("qty", qty);
+        params.put("agree_btc_amount_varies", Boolean.toString(true));
 
-        return success ? Transfer.fromJson(response.getAsJsonObject("transfer")) : null;
+        return params;
     }
     //endregion
 
     //region Buttons
-    private JsonObject createButtonRequestJson(String name, String type, String amount, String currency,
+    JsonObject createButtonRequestJson(String name, String type, String amount, String currency,
                                                      String style, String text, String desc, String custom,
                                                      String callbackUrl, String successUrl, String cancelUrl,
                                                      String infoUrl, boolean isVariablePrice,
@@ -460,8 +987,26 @@ public class CoinbaseApi {
         JsonObject jsonRequest = createButtonRequestJson(name, type, amount, currency, style, text, desc, custom, callbackUrl,
                 successUrl, cancelUrl, infoUrl, isVariablePrice, includeAddress, includeEmail);
 
-        JsonObject resp = RequestClient.post(this, "buttons", jsonRequest, accessToken);
+        ButtonRegistry registry = buttonRegistry;
+        if (registry != null)
+            return registry.get(ButtonRegistry.keyOf(jsonRequest), () -> createButton(jsonRequest));
 
+        return createButton(jsonRequest);
+    }
+
+    private JsonObject createButton(JsonObject jsonRequest) throws IOException {
+        JsonObject resp;
+        try {
+            resp = RequestClient.post(this, "buttons", jsonRequest, currentAccessToken());
+        } catch (UnsupportedRequestVerbException e) {
+            //json bodies are supported for POST
+            throw new IllegalStateException(e);
+        }
+
+        return parseButton(resp);
+    }
+
+    static JsonObject parseButton(JsonObject resp) {
         return resp != null && resp.has("button") ? resp.getAsJsonObject("button") : null;
     }
 
@@ -502,6 +1047,17 @@ public class CoinbaseApi {
         return makeButton(name, amount, currency, null, null, null, null, null, null, null, null, null);
     }
 
+    /**
+     * Creates a new payment button, page, or iframe
+     * @param name The name of the item for which you are collecting bitcoin. For example, Acme Order #123 or Annual Pledge Drive
+     * @param price The price, in the currency it is shown in on the payment widget
+     * @return Json response containing the button information
+     * @throws IOException
+     */
+    public JsonObject makeButton(String name, Money price) throws IOException, UnsupportedRequestVerbException {
+        return makeButton(name, price.toPlainString(), price.getCurrency());
+    }
+
     /**
      * Creates a new payment button, page, or iframe
      * @param name The name of the item for which you are collecting bitcoin. For example, Acme Order #123 or Annual Pledge Drive
@@ -528,20 +1084,349 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public Transaction[] getTransactions(int page) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+        return RequestClient.get(this, "transactions", createTransactionsParams(page), currentAccessToken(),
+                ResponseParsers.TRANSACTIONS);
+    }
 
-        params.put("page", Integer.toString(page));
-        JsonObject response = RequestClient.get(this, "transactions", params, accessToken);
-        JsonArray transactionsJson = response.getAsJsonArray("transactions");
-        Transaction[] transactions = new Transaction[transactionsJson.size()];
-        for (int i = 0; i < transactionsJson.size(); ++i) {
-            JsonObject transactionJson = transactionsJson.get(i).getAsJsonObject().getAsJsonObject("transaction");
-            transactions[i] = Transaction.fromJson(transactionJson);
+    /**
+     * Streams a page of the current user's recent transactions to a listener as they are read from the response
+     * @param page Used to paginate through results. Thirty transactions are returned per page.
+     * @param listener receives each transaction in the page
+     * @throws IOException
+     */
+    public void getTransactions(int page, ModelListener<? super Transaction> listener) throws IOException {
+        RequestClient.get(this, "transactions", createTransactionsParams(page), currentAccessToken(),
+                ResponseParsers.list("transactions", "transaction", Transaction::fromJson, listener));
+    }
+
+    /**
+     * Retrieves one page of the current user's transactions together with the paging fields of the response
+     * @param page the page to retrieve, starting at 1. Thirty transactions are returned per page.
+     * @return the page of transactions
+     * @throws IOException
+     */
+    public Page<Transaction> getTransactionsPage(int page) throws IOException {
+        return RequestClient.get(this, "transactions", createTransactionsParams(page), currentAccessToken(),
+                ResponseParsers.page("transactions", "transaction", Transaction::fromJson));
+    }
+
+    /**
+     * Retrieves one page of the current user's transactions together with the paging fields of the response
+     * @param page the page of transactions to retrieve, starting at 1
+     * @param limit the maximum number of transactions per page. Can't exceed 1000
+     * @return the page of transactions
+     * @throws IOException
+     */
+    public Page<Transaction> getTransactionsPage(int page, int limit) throws IOException {
+        Map<String, String> params = createTransactionsParams(page);
+        params.put("limit", Integer.toString(limit));
+
+        return RequestClient.get(this, "transactions", params, currentAccessToken(),
+                ResponseParsers.page("transactions", "transaction", Transaction::fromJson));
+    }
+
+    /**
+     * Iterates over the current user's entire transaction history, fetching the following pages in the background
+     * while the current one is consumed
+     * @param prefetch the number of pages to fetch ahead of the one being consumed. 0 fetches each page on demand
+     * @return an iterable that walks all pages
+     */
+    public PagedIterable<Transaction> iterateTransactions(int prefetch) {
+        return new PagedIterable<Transaction>(this::getTransactionsPage, prefetch, getPrefetchExecutor());
+    }
+
+    /**
+     * Iterates over the current user's entire transaction history
+     * @return an iterable that walks all pages, fetching {@link #DEFAULT_PREFETCH} pages ahead
+     */
+    public PagedIterable<Transaction> iterateTransactions() {
+        return iterateTransactions(DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Retrieves the current user's entire transaction history. The first page is read to learn the number of pages,
+     * then the rest are fetched concurrently on the prefetch executor. A failed page is retried on its own under the
+     * retry policy.
+     * @param parallelism the maximum number of pages fetched at the same time
+     * @return all transactions, in the order the api pages them
+     * @throws IOException if a page still fails after retrying
+     */
+    public Transaction[] getAllTransactions(int parallelism) throws IOException {
+        List<Transaction> transactions = new PageCollector<Transaction>(this::getTransactionsPage, parallelism,
+                getPrefetchExecutor()).collect();
+
+        return transactions.toArray(new Transaction[transactions.size()]);
+    }
+
+    /**
+     * Resolves the writes the journal could not resolve, typically because the process died while they were in
+     * flight, by looking for their idempotency keys in the transaction history. History is read newest first, back to
+     * shortly before the oldest unresolved write that carries a key. Call this on startup, before making new writes.
+     * @return the writes with no matching transaction, which never reached coinbase and may be sent again, and the
+     * writes that cannot be matched, such as buys and sells, which stay unresolved and must be checked by hand
+     * @throws IllegalStateException if no journal is set
+     */
+    public ReconcileResult reconcileJournal() throws IOException {
+        WriteJournal journal = writeJournal;
+        if (journal == null)
+            throw new IllegalStateException("No write journal set");
+
+        Map<String, JournalEntry> unresolved = new LinkedHashMap<String, JournalEntry>();
+        List<JournalEntry> unknown = new ArrayList<JournalEntry>();
+        long oldest = Long.MAX_VALUE;
+        for (JournalEntry entry : journal.getUnresolved()) {
+            //only transaction writes carry their key to coinbase, so only they can be found in the history
+            if (!entry.getIdempotencyKey().equals(entry.getParams().get(RetryPolicy.IDEMPOTENCY_KEY_PARAM))) {
+                unknown.add(entry);
+                continue;
+            }
+
+            unresolved.put(entry.getIdempotencyKey(), entry);
+            oldest = Math.min(oldest, entry.getCreatedAtMillis());
+        }
+
+        long horizon = oldest - RECONCILE_SKEW_MILLIS;
+        for (int number = 1; !unresolved.isEmpty(); number++) {
+            Page<Transaction> page = getTransactionsPage(number, MAX_PAGE_LIMIT);
+            boolean pastHorizon = false;
+            for (Transaction transaction : page.getItems()) {
+                String key = transaction.getIdem();
+                if (key != null && unresolved.remove(key) != null)
+                    journal.recordOutcome(key, WriteJournal.Outcome.COMPLETED, transaction.getId());
+
+                long createdAt = transaction.getCreatedAtMillis();
+                if (createdAt >= 0 && createdAt < horizon)
+                    pastHorizon = true;
+            }
+
+            if (pastHorizon || page.isLast())
+                break;
+        }
+
+        for (JournalEntry entry : unresolved.values())
+            journal.recordOutcome(entry.getIdempotencyKey(), WriteJournal.Outcome.NOT_FOUND, null);
+
+        return new ReconcileResult(new ArrayList<JournalEntry>(unresolved.values()), unknown);
+    }
+
+    /**
+     * Brings a local store up to date. The first sync downloads the whole transaction history; later ones poll from
+     * the watermark the store keeps, see {@link #syncTransactions(SyncWatermark)}
+     * @param store the store to sync into
+     * @param parallelism the maximum number of pages fetched at the same time by the first sync
+     * @return the number of transactions written
+     */
+    public int syncTransactions(TransactionStore store, int parallelism) throws IOException {
+        SyncWatermark since = store.getWatermark();
+        List<Transaction> transactions;
+        SyncWatermark watermark;
+        if (since == null) {
+            transactions = Arrays.asList(getAllTransactions(parallelism));
+            watermark = watermarkOf(transactions, null, Collections.<Transaction>emptyList());
+        } else {
+            SyncResult result = syncTransactions(since);
+            transactions = result.getTransactions();
+            watermark = result.getWatermark();
+        }
+
+        int changed = 0;
+        for (Transaction transaction : transactions) {
+            if (store.putTransaction(transaction))
+                changed++;
+        }
+
+        store.setWatermark(watermark);
+        store.flush();
+        return changed;
+    }
+
+    /**
+     * Polls for the transactions created since a watermark, and for changes to the pending transactions it tracks.
+     * A first page of {@link #SYNC_POLL_LIMIT} transactions is read; if the watermark is not on it, history is read
+     * in pages of 1000 until it is. Every tracked pending transaction is then looked up again: by reading on through
+     * the list back to the oldest of them when that takes fewer requests, and one request each otherwise. So in the
+     * steady state a poll costs one small request, plus at most one per tracked pending transaction. Changes to
+     * transactions that were not pending are not detected.
+     * @param since the watermark of the previous sync, or null to read the whole history
+     * @return the new and changed transactions, and the watermark to pass next time
+     */
+    public SyncResult syncTransactions(SyncWatermark since) throws IOException {
+        Map<String, Transaction> found = new LinkedHashMap<String, Transaction>();
+        ReadSpan span = new ReadSpan();
+        int requests = 0;
+        boolean reached = false;
+        if (since != null) {
+            Page<Transaction> page = getTransactionsPage(1, SYNC_POLL_LIMIT);
+            requests++;
+            span.add(page);
+            reached = collectUntil(since, page, found);
+        }
+
+        // pages shift as transactions are created, so a page may repeat some of the previous one; found dedupes them
+        int number = 1;
+        for (; !reached; number++) {
+            Page<Transaction> page = getTransactionsPage(number, MAX_PAGE_LIMIT);
+            requests++;
+            span.add(page);
+            reached = collectUntil(since, page, found);
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>(found.values());
+        List<Transaction> stillPending = new ArrayList<Transaction>();
+        if (since != null) {
+            Set<String> remaining = new LinkedHashSet<String>(since.getPendingIds());
+            remaining.removeAll(found.keySet());
+
+            requests += listPending(since.getOldestPendingCreatedAtMillis(), remaining, span, number, transactions,
+                    stillPending);
+
+            for (String id : remaining) {
+                Transaction current;
+                try {
+                    current = fetchTransaction(id);
+                } catch (HttpResponseException e) {
+                    if (e.getStatusCode() != 404)
+                        throw e;
+                    current = null;
+                } finally {
+                    requests++;
+                }
+
+                if (current != null)
+                    classifyPending(current, transactions, stillPending);
+            }
+        }
+
+        return new SyncResult(transactions, watermarkOf(transactions, since, stillPending), requests);
+    }
+
+    /**
+     * The creation times covered by the transaction list pages read so far
+     */
+    private static final class ReadSpan {
+        long newest = Long.MIN_VALUE;
+        long oldest = Long.MAX_VALUE;
+        int items;
+
+        void add(Page<Transaction> page) {
+            for (Transaction transaction : page.getItems()) {
+                long createdAt = transaction.getCreatedAtMillis();
+                if (createdAt >= 0) {
+                    newest = Math.max(newest, createdAt);
+                    oldest = Math.min(oldest, createdAt);
+                    items++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up tracked pending transactions by reading on through the list in pages of 1000, for as long as the span
+     * read so far says that reaching the oldest of them takes fewer requests than fetching the rest one by one
+     * @param remaining the ids to look up; the ones found are removed
+     * @param number the number of the next page of 1000
+     * @return the number of requests made
+     */
+    private int listPending(long oldestPending, Set<String> remaining, ReadSpan span, int number,
+                            List<Transaction> changed, List<Transaction> stillPending) throws IOException {
+        int requests = 0;
+        while (remaining.size() > 1 && oldestPending >= 0 && span.items > 1 && span.oldest >= oldestPending) {
+            double millisPerItem = (double) (span.newest - span.oldest) / (span.items - 1);
+            double pagesLeft = millisPerItem > 0
+                    ? Math.ceil((span.oldest - oldestPending) / millisPerItem / MAX_PAGE_LIMIT) : remaining.size();
+            if (pagesLeft >= remaining.size())
+                break;
+
+            Page<Transaction> page = getTransactionsPage(number++, MAX_PAGE_LIMIT);
+            requests++;
+            span.add(page);
+            for (Transaction transaction : page.getItems()) {
+                if (remaining.remove(transaction.getId()))
+                    classifyPending(transaction, changed, stillPending);
+            }
+
+            if (page.isLast())
+                break;
+        }
+
+        return requests;
+    }
+
+    /**
+     * Sorts the current state of a tracked pending transaction into the changed or the still pending ones
+     */
+    private static void classifyPending(Transaction current, List<Transaction> changed,
+                                        List<Transaction> stillPending) {
+        if (current.getStatus() == TransactionStatus.PENDING)
+            stillPending.add(current);
+        else
+            changed.add(current);
+    }
+
+    /**
+     * Adds the transactions of a page, newest first, until one the watermark covers
+     * @return whether the sync can stop: the watermark was reached or this was the last page
+     */
+    private static boolean collectUntil(SyncWatermark since, Page<Transaction> page, Map<String, Transaction> found) {
+        for (Transaction transaction : page.getItems()) {
+            if (since != null && since.covers(transaction))
+                return true;
+            if (transaction.getId() != null && !found.containsKey(transaction.getId()))
+                found.put(transaction.getId(), transaction);
         }
 
-        return transactions;
+        return page.isLast();
+    }
+
+    /**
+     * @param transactions the transactions read, newest first
+     * @param since the previous watermark, or null
+     * @param stillPending the previous watermark's pending transactions that are still pending
+     */
+    private static SyncWatermark watermarkOf(List<Transaction> transactions, SyncWatermark since,
+                                             List<Transaction> stillPending) {
+        Set<String> newestIds = new LinkedHashSet<String>();
+        long newestCreatedAt = -1;
+        if (since != null) {
+            newestIds.addAll(since.getNewestIds());
+            newestCreatedAt = since.getNewestCreatedAtMillis();
+        }
+
+        Set<String> pending = new LinkedHashSet<String>();
+        long oldestPending = Long.MAX_VALUE;
+        for (Transaction transaction : transactions) {
+            long createdAt = transaction.getCreatedAtMillis();
+            if (createdAt > newestCreatedAt) {
+                newestIds.clear();
+                newestCreatedAt = createdAt;
+            }
+            if (createdAt == newestCreatedAt && transaction.getId() != null)
+                newestIds.add(transaction.getId());
+        }
+
+        boolean oldestKnown = true;
+        List<Transaction> allPending = new ArrayList<Transaction>(transactions);
+        allPending.addAll(stillPending);
+        for (Transaction transaction : allPending) {
+            if (transaction.getStatus() != TransactionStatus.PENDING || transaction.getId() == null)
+                continue;
+
+            pending.add(transaction.getId());
+            if (transaction.getCreatedAtMillis() >= 0)
+                oldestPending = Math.min(oldestPending, transaction.getCreatedAtMillis());
+            else
+                oldestKnown = false;
+        }
+
+        return new SyncWatermark(newestIds, newestCreatedAt, pending,
+                oldestKnown && oldestPending != Long.MAX_VALUE ? oldestPending : -1);
+    }
+
+    Map<String, String> createTransactionsParams(int page) {
+        Map<String, String> params = createParams();
+        params.put("page", Integer.toString(page));
+
+        return params;
     }
 
     /**
@@ -559,18 +1444,39 @@ public class CoinbaseApi {
      * @return A Transaction object containing details for the transaction
      * @throws IOException
      */
-    public Transaction getTransaction(String transactionId) throws IOException {
-        JsonObject response = RequestClient.get(this, "transactions/" + transactionId, accessToken);
-        return Transaction.fromJson(response.getAsJsonObject("transaction"));
+    public Transaction getTransaction(final String transactionId) throws IOException {
+        return cachedCopy(ResponseCache.TRANSACTION, "transactions/" + transactionId, ModelSnapshot.TRANSACTION,
+                () -> RequestClient.get(this, "transactions/" + transactionId, null, currentAccessToken(),
+                        ResponseParsers.TRANSACTION));
+    }
+
+    /**
+     * Reads a transaction from coinbase, bypassing the response cache, for callers watching it change
+     */
+    Transaction fetchTransaction(String transactionId) throws IOException {
+        return RequestClient.get(this, "transactions/" + transactionId, null, currentAccessToken(),
+                ResponseParsers.TRANSACTION);
     }
 
     private Transaction sendMoney(String to, String amount, String amountString, String currency, String notes,
                                   String fee, String refererId) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+        String idempotencyKey = newIdempotencyKey();
+        Map<String, String> params = createSendMoneyParams(to, amount, amountString, currency, notes, fee, refererId,
+                idempotencyKey);
+        ResponseParsers.WriteResult<Transaction> result = postMoneyWrite("transactions/send_money", params,
+                idempotencyKey, ResponseParsers.TRANSACTION_WRITE, Transaction::getId);
+        invalidate(ResponseCache.USERS);
+
+        return result.success ? result.value : null;
+    }
 
+    Map<String, String> createSendMoneyParams(String to, String amount, String amountString, String currency,
+                                              String notes, String fee, String refererId, String idempotencyKey) {
+        Map<String, String> params = createParams();
         params.put("transaction[to]", to);
+        if (idempotencyKey != null)
+            params.put(RetryPolicy.IDEMPOTENCY_KEY_PARAM, idempotencyKey);
+
         if (amount != null)
             params.put("transaction[amount]", amount);
 
@@ -589,12 +1495,7 @@ public class CoinbaseApi {
         if (refererId != null)
             params.put("transaction[referrer_id]", refererId);
 
-        JsonObject response = RequestClient.post(this, "transactions/send_money", params, accessToken);
-
-        if (!response.get("success").getAsBoolean())
-            return null;
-
-        return Transaction.fromJson(response.getAsJsonObject("transaction"));
+        return params;
     }
 
     /**
@@ -622,6 +1523,19 @@ public class CoinbaseApi {
         return sendMoney(to, null, amountString, currency, notes, null, null);
     }
 
+    /**
+     * Send bitcoins to an email address or bitcoin address.
+     * @param to An email address or a bitcoin address
+     * @param amount The amount to send. Amounts in other currencies than BTC are converted to BTC by coinbase.
+     * @param notes Included in the email that the recipient receives.
+     * @return A Transaction object
+     * @throws IOException
+     */
+    public Transaction sendMoney(String to, Money amount, String notes) throws IOException {
+        return amount.isBtc() ? sendMoney(to, amount.toPlainString(), notes)
+                : sendMoney(to, amount.toPlainString(), amount.getCurrency(), notes);
+    }
+
     /**
      * Send bitcoins to an email address or bitcoin address.
      * @param to An email address or a bitcoin address
@@ -654,13 +1568,79 @@ public class CoinbaseApi {
         return sendMoney(to, null, amountString, currency, notes, fee, referrerId);
     }
 
+    /**
+     * Sends a batch of payouts, {@link #DEFAULT_PAYOUT_CONCURRENCY} at a time
+     * @see #sendPayouts(List, int, PayoutListener)
+     */
+    public List<PayoutResult> sendPayouts(List<PayoutInstruction> instructions) throws InterruptedIOException {
+        return sendPayouts(instructions, DEFAULT_PAYOUT_CONCURRENCY, null);
+    }
+
+    /**
+     * Sends a batch of payouts with up to concurrency of them in flight at once, on the prefetch executor. Requests
+     * are paced by the api's rate limiter when one is set, and each payout is retried under the api's retry policy
+     * with its own idempotency key.
+     *
+     * A failed payout does not stop the batch: its result carries the reason coinbase gave, or the error, and whether
+     * submitting the instruction again could succeed.
+     * @param instructions the payouts to make
+     * @param concurrency the maximum number of payouts in flight
+     * @param listener notified of each result as soon as it is known, or null
+     * @return a result for every instruction, in the order of the instructions
+     * @throws InterruptedIOException if the thread is interrupted while waiting. No further payouts are started, but
+     * those already sent are not undone
+     */
+    public List<PayoutResult> sendPayouts(List<PayoutInstruction> instructions, int concurrency,
+                                          PayoutListener listener) throws InterruptedIOException {
+        try {
+            return new PayoutRunner(this, instructions, concurrency, listener, getPrefetchExecutor()).run();
+        } finally {
+            invalidate(ResponseCache.USERS);
+        }
+    }
+
+    /**
+     * Sends one payout of a batch, capturing its outcome instead of throwing
+     */
+    PayoutResult sendPayout(int index, PayoutInstruction instruction) {
+        try {
+            Map<String, String> params = createSendMoneyParams(instruction.getTo(), instruction.getAmount(),
+                    instruction.getAmountString(), instruction.getCurrency(), instruction.getNotes(),
+                    instruction.getFee(), instruction.getReferrerId(), instruction.getIdempotencyKey());
+            ResponseParsers.WriteResult<Transaction> result = postMoneyWrite("transactions/send_money", params,
+                    instruction.getIdempotencyKey(), ResponseParsers.TRANSACTION_WRITE, Transaction::getId);
+
+            if (result.success && result.value != null)
+                return PayoutResult.succeeded(index, instruction, result.value);
+
+            String reason = result.errors.isEmpty() ? "Rejected by coinbase" : String.join("; ", result.errors);
+            return PayoutResult.failed(index, instruction, reason, null, false);
+        } catch (IOException e) {
+            return PayoutResult.failed(index, instruction, e.getMessage(), e, PayoutRunner.isRetryable(e));
+        } catch (RuntimeException e) {
+            //such as a response that could not be parsed; the payout may have gone through, and resending it with
+            //the same idempotency key is safe
+            return PayoutResult.failed(index, instruction, String.valueOf(e.getMessage()), e, true);
+        }
+    }
+
     private Transaction requestMoney(String from, String amount, String amountString, String currency, String notes)
         throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
+        String idempotencyKey = newIdempotencyKey();
+        Map<String, String> params = createRequestMoneyParams(from, amount, amountString, currency, notes,
+                idempotencyKey);
+        ResponseParsers.WriteResult<Transaction> result = postMoneyWrite("transactions/request_money", params,
+                idempotencyKey, ResponseParsers.TRANSACTION_WRITE, Transaction::getId);
 
+        return result.success ? result.value : null;
+    }
+
+    Map<String, String> createRequestMoneyParams(String from, String amount, String amountString, String currency,
+                                                 String notes, String idempotencyKey) {
+        Map<String, String> params = createParams();
         params.put("transaction[from]", from);
+        if (idempotencyKey != null)
+            params.put(RetryPolicy.IDEMPOTENCY_KEY_PARAM, idempotencyKey);
 
         if (amount != null)
             params.put("transaction[amount]", amount);
@@ -674,11 +1654,7 @@ public class CoinbaseApi {
         if (notes != null)
             params.put("transaction[notes]", notes);
 
-        JsonObject response = RequestClient.post(this, "transactions/request_money", params, accessToken);
-        if (!response.get("success").getAsBoolean())
-            return null;
-
-        return Transaction.fromJson(response.getAsJsonObject("transaction"));
+        return params;
     }
 
     /**
@@ -707,6 +1683,19 @@ public class CoinbaseApi {
         return requestMoney(from, null, amountString, currency, notes);
     }
 
+    /**
+     * Send an invoice/money request to an email address.
+     * @param from An email address to send the request
+     * @param amount The amount to request. Amounts in other currencies than BTC are converted to BTC by coinbase.
+     * @param notes Included in the email that the recipient receives.
+     * @return A Transaction object
+     * @throws IOException
+     */
+    public Transaction requestMoney(String from, Money amount, String notes) throws IOException {
+        return amount.isBtc() ? requestMoney(from, amount.toPlainString(), notes)
+                : requestMoney(from, amount.toPlainString(), amount.getCurrency(), notes);
+    }
+
     /**
      * Resend emails for a money request.
      * @param requestId The id of the request transaction to resend
@@ -714,14 +1703,8 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public boolean resendMoneyRequest(String requestId) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
-
-        JsonObject response = RequestClient.put(this, "transactions/" + requestId + "/resend_request",
-                params, accessToken);
-
-        return response.get("success").getAsBoolean();
+        return RequestClient.put(this, "transactions/" + requestId + "/resend_request", createParams(),
+                currentAccessToken(), ResponseParsers.SUCCESS);
     }
 
     /**
@@ -731,14 +1714,11 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public boolean cancelMoneyRequest(String requestId) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
-
-        JsonObject response = RequestClient.delete(this, "transactions/" + requestId + "/cancel_request",
-                params, accessToken);
+        boolean success = RequestClient.delete(this, "transactions/" + requestId + "/cancel_request", createParams(),
+                currentAccessToken(), ResponseParsers.SUCCESS);
+        invalidate("transactions/" + requestId);
 
-        return response.get("success").getAsBoolean();
+        return success;
     }
 
     /**
@@ -748,17 +1728,12 @@ public class CoinbaseApi {
      * @throws IOException
      */
     public Transaction completeMoneyRequest(String requestId) throws IOException {
-        Map<String, String> params = new HashMap<String, String>();
-        if (apiKey != null)
-            params.put("api_key", apiKey);
-
-        JsonObject response = RequestClient.put(this, "transactions/" + requestId + "/complete_request",
-                params, accessToken);
-
-        if (!response.get("success").getAsBoolean())
-            return null;
+        Transaction transaction = RequestClient.put(this, "transactions/" + requestId + "/complete_request",
+                createParams(), currentAccessToken(), ResponseParsers.TRANSACTION_RESULT);
+        invalidate(ResponseCache.USERS);
+        invalidate("transactions/" + requestId);
 
-        return Transaction.fromJson(response.getAsJsonObject("transaction"));
+        return transaction;
     }
     //endregion
 }
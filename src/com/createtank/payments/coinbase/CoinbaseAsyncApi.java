@@ -0,0 +1,347 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.Money;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.Transfer;
+import com.createtank.payments.coinbase.models.User;
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous counterpart of {@link CoinbaseApi}. Every operation returns immediately with a CompletableFuture and
+ * runs the blocking call of the wrapped api on an executor, so it goes through the same request pipeline: the api's
+ * transport, token refresh, rate limiter, circuit breaker, retry and hedge policies, response cache, write journal
+ * and button registry. Results and errors are exactly those of the blocking call.
+ *
+ * Each call in flight holds an executor thread, so the executor bounds how many calls run at once; the rest wait in
+ * its queue.
+ */
+public class CoinbaseAsyncApi {
+
+    /** The number of threads of the default executor */
+    public static final int DEFAULT_EXECUTOR_THREADS = 64;
+
+    /**
+     * A bounded pool of daemon threads shared by the instances created without an executor of their own. Calls block
+     * while they wait for the network, the rate limiter or a token refresh, so they must not run on a pool the rest of
+     * the application depends on
+     */
+    private static final class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_EXECUTOR_THREADS, DEFAULT_EXECUTOR_THREADS,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "coinbase-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    /**
+     * A blocking call of the wrapped api
+     */
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private final CoinbaseApi api;
+    private final Executor executor;
+
+    /**
+     * Runs calls on a shared pool of {@link #DEFAULT_EXECUTOR_THREADS} daemon threads
+     */
+    public CoinbaseAsyncApi(CoinbaseApi api) {
+        this(api, null);
+    }
+
+    /**
+     * @param api the api the calls are made with
+     * @param executor the executor the calls run on, or null for a shared pool of {@link #DEFAULT_EXECUTOR_THREADS}
+     * daemon threads
+     */
+    public CoinbaseAsyncApi(CoinbaseApi api, Executor executor) {
+        this.api = api;
+        this.executor = executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    }
+
+    public CoinbaseApi getApi() {
+        return api;
+    }
+
+    //region Users
+    /**
+     * @see CoinbaseApi#me()
+     */
+    public CompletableFuture<User> me() {
+        return async(api::me);
+    }
+    //endregion
+
+    //region Addresses
+    /**
+     * @see CoinbaseApi#getAddresses(int, int, String)
+     */
+    public CompletableFuture<Address[]> getAddresses(int page, int limit, String query) {
+        return async(() -> api.getAddresses(page, limit, query));
+    }
+
+    /**
+     * @see CoinbaseApi#getAddresses(int, int)
+     */
+    public CompletableFuture<Address[]> getAddresses(int page, int limit) {
+        return getAddresses(page, limit, null);
+    }
+
+    /**
+     * @see CoinbaseApi#getAddresses(int)
+     */
+    public CompletableFuture<Address[]> getAddresses(int page) {
+        return getAddresses(page, 1000, null);
+    }
+
+    /**
+     * @see CoinbaseApi#getAddresses(String)
+     */
+    public CompletableFuture<Address[]> getAddresses(String query) {
+        return getAddresses(1, 1000, query);
+    }
+    //endregion
+
+    //region Account
+    /**
+     * @see CoinbaseApi#generateReceiveAddress()
+     */
+    public CompletableFuture<Address> generateReceiveAddress() {
+        return async(() -> api.generateReceiveAddress());
+    }
+    //endregion
+
+    //region Buys
+    /**
+     * @see CoinbaseApi#buyBitcoins(float)
+     */
+    public CompletableFuture<Transfer> buyBitcoins(float qty) {
+        return async(() -> api.buyBitcoins(qty));
+    }
+
+    /**
+     * @see CoinbaseApi#buyBitcoins(Money)
+     */
+    public CompletableFuture<Transfer> buyBitcoins(Money qty) {
+        return async(() -> api.buyBitcoins(qty));
+    }
+    //endregion
+
+    //region Sells
+    /**
+     * @see CoinbaseApi#sellBitcoin(float)
+     */
+    public CompletableFuture<Transfer> sellBitcoin(float qty) {
+        return async(() -> api.sellBitcoin(qty));
+    }
+
+    /**
+     * @see CoinbaseApi#sellBitcoin(Money)
+     */
+    public CompletableFuture<Transfer> sellBitcoin(Money qty) {
+        return async(() -> api.sellBitcoin(qty));
+    }
+    //endregion
+
+    //region Buttons
+    /**
+     * @see CoinbaseApi#makeButton(String, String, String, String, String, String, String, String, String, String,
+     * String, String, boolean, boolean, boolean)
+     */
+    public CompletableFuture<JsonObject> makeButton(String name, String amount, String currency, String type,
+                                                    String style, String text, String desc, String custom,
+                                                    String callbackUrl, String successUrl, String cancelUrl,
+                                                    String infoUrl, boolean isVariablePrice,
+                                                    boolean includeAddress, boolean includeEmail) {
+        return async(() -> api.makeButton(name, amount, currency, type, style, text, desc, custom, callbackUrl,
+                successUrl, cancelUrl, infoUrl, isVariablePrice, includeAddress, includeEmail));
+    }
+
+    /**
+     * @see CoinbaseApi#makeButton(String, String, String)
+     */
+    public CompletableFuture<JsonObject> makeButton(String name, String amount, String currency) {
+        return makeButton(name, amount, currency, null, null, null, null, null, null, null, null, null,
+                false, false, false);
+    }
+
+    /**
+     * @see CoinbaseApi#makeButton(String, Money)
+     */
+    public CompletableFuture<JsonObject> makeButton(String name, Money price) {
+        return makeButton(name, price.toPlainString(), price.getCurrency());
+    }
+
+    /**
+     * @see CoinbaseApi#makeButton(String, String, String, String, String)
+     */
+    public CompletableFuture<JsonObject> makeButton(String name, String amount, String currency, String type,
+                                                    String custom) {
+        return makeButton(name, amount, currency, type, null, null, null, custom, null, null, null, null,
+                false, false, false);
+    }
+    //endregion
+
+    //region Transactions
+    /**
+     * @see CoinbaseApi#getTransactions(int)
+     */
+    public CompletableFuture<Transaction[]> getTransactions(int page) {
+        return async(() -> api.getTransactions(page));
+    }
+
+    /**
+     * @see CoinbaseApi#getTransactions()
+     */
+    public CompletableFuture<Transaction[]> getTransactions() {
+        return getTransactions(1);
+    }
+
+    /**
+     * @see CoinbaseApi#getTransaction(String)
+     */
+    public CompletableFuture<Transaction> getTransaction(String transactionId) {
+        return async(() -> api.getTransaction(transactionId));
+    }
+
+    /**
+     * @see CoinbaseApi#sendMoney(String, String, String)
+     */
+    public CompletableFuture<Transaction> sendMoney(String to, String amount, String notes) {
+        return async(() -> api.sendMoney(to, amount, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#sendMoney(String, String, String, String)
+     */
+    public CompletableFuture<Transaction> sendMoney(String to, String amountString, String currency, String notes) {
+        return async(() -> api.sendMoney(to, amountString, currency, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#sendMoney(String, Money, String)
+     */
+    public CompletableFuture<Transaction> sendMoney(String to, Money amount, String notes) {
+        return async(() -> api.sendMoney(to, amount, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#sendMoney(String, String, String, String, String)
+     */
+    public CompletableFuture<Transaction> sendMoney(String to, String amount, String notes, String fee,
+                                                    String referrerId) {
+        return async(() -> api.sendMoney(to, amount, notes, fee, referrerId));
+    }
+
+    /**
+     * @see CoinbaseApi#sendMoney(String, String, String, String, String, String)
+     */
+    public CompletableFuture<Transaction> sendMoney(String to, String amountString, String currency, String notes,
+                                                    String fee, String referrerId) {
+        return async(() -> api.sendMoney(to, amountString, currency, notes, fee, referrerId));
+    }
+
+    /**
+     * @see CoinbaseApi#requestMoney(String, String, String)
+     */
+    public CompletableFuture<Transaction> requestMoney(String from, String amount, String notes) {
+        return async(() -> api.requestMoney(from, amount, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#requestMoney(String, String, String, String)
+     */
+    public CompletableFuture<Transaction> requestMoney(String from, String amountString, String currency,
+                                                       String notes) {
+        return async(() -> api.requestMoney(from, amountString, currency, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#requestMoney(String, Money, String)
+     */
+    public CompletableFuture<Transaction> requestMoney(String from, Money amount, String notes) {
+        return async(() -> api.requestMoney(from, amount, notes));
+    }
+
+    /**
+     * @see CoinbaseApi#resendMoneyRequest(String)
+     */
+    public CompletableFuture<Boolean> resendMoneyRequest(String requestId) {
+        return async(() -> api.resendMoneyRequest(requestId));
+    }
+
+    /**
+     * @see CoinbaseApi#cancelMoneyRequest(String)
+     */
+    public CompletableFuture<Boolean> cancelMoneyRequest(String requestId) {
+        return async(() -> api.cancelMoneyRequest(requestId));
+    }
+
+    /**
+     * @see CoinbaseApi#completeMoneyRequest(String)
+     */
+    public CompletableFuture<Transaction> completeMoneyRequest(String requestId) {
+        return async(() -> api.completeMoneyRequest(requestId));
+    }
+    //endregion
+
+    /**
+     * Runs a blocking call on the executor, completing the returned future with its result or the exception it threw
+     */
+    private <T> CompletableFuture<T> async(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.hedge.HedgePolicy;
+import com.createtank.payments.coinbase.transport.AbortSignal;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Races one read against a hedge of itself under a {@link HedgePolicy}.
+ *
+ * The first attempt runs on the calling thread, so a read that answers in time costs nothing but a timer. Once the
+ * hedge delay passes the same request is sent again on the api's prefetch executor. Whichever attempt answers first
+ * wins and aborts the other through its {@link AbortSignal}, which closes the loser's connection. If the first
+ * attempt fails while a hedge is running the caller waits for the hedge instead.
+ */
+class HedgedRequest<T> {
+
+    private static final class TimerHolder {
+        static final ScheduledExecutorService TIMER = createTimer();
+
+        private static ScheduledExecutorService createTimer() {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "coinbase-hedge-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            return Executors.unconfigurableScheduledExecutorService(timer);
+        }
+    }
+
+    private final CoinbaseApi api;
+    private final HedgePolicy policy;
+    private final String method;
+    private final String endpoint;
+    private final TransportRequest request;
+    private final ResponseParser<T> parser;
+
+    private final AbortSignal primarySignal = new AbortSignal();
+    private final AbortSignal hedgeSignal = new AbortSignal();
+    private final AtomicBoolean decided = new AtomicBoolean();
+    private boolean primaryFailed;
+    private CompletableFuture<T> hedge;
+
+    HedgedRequest(CoinbaseApi api, HedgePolicy policy, String method, String endpoint, TransportRequest request,
+                  ResponseParser<T> parser) {
+        this.api = api;
+        this.policy = policy;
+        this.method = method;
+        this.endpoint = endpoint;
+        this.request = request;
+        this.parser = parser;
+    }
+
+    T execute() throws IOException {
+        long delay = policy.hedgeDelay(endpoint);
+        long start = System.nanoTime();
+        if (delay < 0) {
+            T result = RequestClient.execute(api, method, request, true, parser, null);
+            policy.onResponse(endpoint, System.nanoTime() - start);
+            return result;
+        }
+
+        ScheduledFuture<?> timer = TimerHolder.TIMER.schedule(this::startHedge, delay, TimeUnit.NANOSECONDS);
+        IOException failure;
+        try {
+            T result = RequestClient.execute(api, method, request, true, parser, primarySignal);
+            if (decided.compareAndSet(false, true)) {
+                hedgeSignal.abort();
+                policy.onResponse(endpoint, System.nanoTime() - start);
+            }
+
+            return result;
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            hedgeSignal.abort();
+            throw e;
+        } finally {
+            timer.cancel(false);
+        }
+
+        CompletableFuture<T> hedge;
+        synchronized (this) {
+            primaryFailed = true;
+            hedge = this.hedge;
+        }
+
+        if (hedge == null)
+            throw failure;
+
+        try {
+            return hedge.get();
+        } catch (InterruptedException e) {
+            hedgeSignal.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for hedged request " + method);
+        } catch (ExecutionException e) {
+            failure.addSuppressed(e.getCause());
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs on the timer once the hedge delay has passed without an answer
+     */
+    private void startHedge() {
+        CompletableFuture<T> hedge = new CompletableFuture<T>();
+        synchronized (this) {
+            if (primaryFailed || decided.get() || !policy.tryHedge())
+                return;
+
+            this.hedge = hedge;
+        }
+
+        try {
+            api.getPrefetchExecutor().execute(() -> runHedge(hedge));
+        } catch (RuntimeException e) {
+            hedge.completeExceptionally(e);
+        }
+    }
+
+    private void runHedge(CompletableFuture<T> hedge) {
+        long start = System.nanoTime();
+        try {
+            T result = RequestClient.execute(api, method, request, true, parser, hedgeSignal);
+            if (decided.compareAndSet(false, true)) {
+                policy.onHedgeWon();
+                primarySignal.abort();
+                policy.onResponse(endpoint, System.nanoTime() - start);
+            }
+
+            hedge.complete(result);
+        } catch (Throwable e) {
+            hedge.completeExceptionally(e);
+        }
+    }
+}
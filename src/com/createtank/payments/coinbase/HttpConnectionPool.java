@@ -0,0 +1,189 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.exceptions.ConnectionPoolClosedException;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived pool of keep-alive HTTP connections to the coinbase API. A pool can be handed to any number of
+ * CoinbaseApi instances via {@link CoinbaseApi#setConnectionPool(HttpConnectionPool)}; every call made through those
+ * instances then reuses the pooled connections instead of opening a new TCP + TLS session per request.
+ *
+ * The pool owns a background thread that evicts expired and idle connections, so it must be closed once it is no
+ * longer needed.
+ */
+public class HttpConnectionPool implements Closeable {
+
+    public static final int DEFAULT_MAX_TOTAL = 50;
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static HttpConnectionPool shared;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final Thread evictor;
+    private final long idleTimeoutMillis;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool using the default limits
+     */
+    public HttpConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS,
+                DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS);
+    }
+
+    /**
+     * Creates a pool
+     * @param maxTotal the maximum number of open connections across all routes
+     * @param maxPerRoute the maximum number of open connections to a single host
+     * @param keepAliveMillis how long an idle connection is kept open when the server does not send a Keep-Alive
+     *                        timeout of its own
+     * @param idleTimeoutMillis connections idle for longer than this are closed by the eviction thread
+     * @param validateAfterInactivityMillis connections idle for longer than this are checked for staleness before
+     *                                      being leased again. A negative value disables validation
+     */
+    public HttpConnectionPool(int maxTotal, int maxPerRoute, final long keepAliveMillis, long idleTimeoutMillis,
+                              int validateAfterInactivityMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivityMillis);
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement element = it.nextElement();
+                    if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                        try {
+                            return Long.parseLong(element.getValue()) * 1000;
+                        } catch (NumberFormatException e) {
+                            //fall back to the configured keep-alive
+                        }
+                    }
+                }
+
+                return keepAliveMillis;
+            }
+        };
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .build();
+
+        evictor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                evictConnections();
+            }
+        }, "coinbase-connection-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    /**
+     * Returns the process-wide pool, creating it with the default limits on first use. The shared pool stays open
+     * until {@link #closeShared()} is called.
+     * @return the shared pool
+     */
+    public static synchronized HttpConnectionPool getShared() {
+        if (shared == null || shared.isClosed())
+            shared = new HttpConnectionPool();
+
+        return shared;
+    }
+
+    /**
+     * Closes the process-wide pool, if one has been created. Instances still using it fail with a
+     * {@link ConnectionPoolClosedException}; the next call to {@link #getShared()} creates a new pool.
+     */
+    public static synchronized void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+
+    /**
+     * @return the HttpClient backed by this pool. Callers must not close it; use {@link #close()} instead
+     * @throws ConnectionPoolClosedException if the pool has been closed, such as by {@link #closeShared()}
+     */
+    public CloseableHttpClient getClient() throws ConnectionPoolClosedException {
+        if (closed)
+            throw new ConnectionPoolClosedException();
+
+        return client;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void evictConnections() {
+        long interval = Math.max(1000, Math.min(idleTimeoutMillis, 5000));
+        try {
+            while (!closed) {
+                Thread.sleep(interval);
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            //closing
+        }
+    }
+
+    /**
+     * Stops the eviction thread and closes every pooled connection
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        evictor.interrupt();
+        try {
+            client.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+        connectionManager.shutdown();
+    }
+}
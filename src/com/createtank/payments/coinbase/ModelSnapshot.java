@@ -0,0 +1,74 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Freezes a mutable model in its binary form, so that a cache can hand every reader a model of its own instead of
+ * one shared object any of them could change
+ */
+final class ModelSnapshot<T> {
+
+    static final ModelSnapshot<User> USER = new ModelSnapshot<User>(User::toBinary, User::fromBinary);
+    static final ModelSnapshot<Transaction> TRANSACTION = new ModelSnapshot<Transaction>(
+            (transaction, out) -> transaction.toBinary(out), Transaction::fromBinary);
+
+    interface Writer<T> {
+        void write(T model, DataOutput out) throws IOException;
+    }
+
+    interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private final Writer<T> writer;
+    private final Reader<T> reader;
+
+    private ModelSnapshot(Writer<T> writer, Reader<T> reader) {
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    /**
+     * @return the model in binary form, or null for null
+     */
+    byte[] freeze(T model) throws IOException {
+        if (model == null)
+            return null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        writer.write(model, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a new model read from a snapshot, or null for null
+     */
+    T thaw(byte[] snapshot) throws IOException {
+        return snapshot != null ? reader.read(new DataInputStream(new ByteArrayInputStream(snapshot))) : null;
+    }
+}
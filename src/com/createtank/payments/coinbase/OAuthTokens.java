@@ -0,0 +1,70 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+/**
+ * An immutable snapshot of the OAuth token pair. CoinbaseApi swaps whole snapshots atomically, so a reader never sees
+ * an access token paired with the wrong refresh token or expiry.
+ */
+final class OAuthTokens {
+
+    static final OAuthTokens NONE = new OAuthTokens(null, null);
+
+    private final String accessToken;
+    private final String refreshToken;
+    private final boolean hasExpiry;
+    private final long expiresAtNanos;
+
+    /**
+     * Creates a token pair whose expiry is unknown
+     */
+    OAuthTokens(String accessToken, String refreshToken) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.hasExpiry = false;
+        this.expiresAtNanos = 0;
+    }
+
+    /**
+     * @param expiresAtNanos the System.nanoTime() at which the access token expires
+     */
+    OAuthTokens(String accessToken, String refreshToken, long expiresAtNanos) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.hasExpiry = true;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    String getAccessToken() {
+        return accessToken;
+    }
+
+    String getRefreshToken() {
+        return refreshToken;
+    }
+
+    boolean hasExpiry() {
+        return hasExpiry;
+    }
+
+    /**
+     * @return nanoseconds until the access token expires, negative once it has. Only meaningful with an expiry
+     */
+    long nanosUntilExpiry(long now) {
+        return expiresAtNanos - now;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Page;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches every page of a paginated list. Page 1 is read first to learn num_pages, then the remaining pages are
+ * fetched concurrently by a bounded number of workers and reassembled in page order.
+ *
+ * A failed page is retried on its own by the api's {@link com.createtank.payments.coinbase.retry.RetryPolicy}; once
+ * that gives up, the whole fetch fails.
+ */
+final class PageCollector<T> {
+
+    private final PageFetcher<T> fetcher;
+    private final int parallelism;
+    private final Executor executor;
+
+    PageCollector(PageFetcher<T> fetcher, int parallelism, Executor executor) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+
+        this.fetcher = fetcher;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the items of every page, in order
+     */
+    List<T> collect() throws IOException {
+        Page<T> first = fetchPage(1);
+        if (first.isLast())
+            return new ArrayList<T>(first.getItems());
+
+        int numPages = first.getNumPages();
+        if (numPages == 0)
+            return collectSequentially(first);
+
+        //each worker sets distinct slots, which the join below publishes
+        final List<Page<T>> pages = new ArrayList<Page<T>>(Collections.<Page<T>>nCopies(numPages + 1, null));
+        pages.set(1, first);
+
+        final AtomicInteger nextPage = new AtomicInteger(2);
+        final int lastPage = numPages;
+        int workers = Math.min(parallelism, numPages - 1);
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                int page;
+                while ((page = nextPage.getAndIncrement()) <= lastPage) {
+                    try {
+                        pages.set(page, fetchPage(page));
+                    } catch (IOException e) {
+                        //stop the other workers from picking up further pages
+                        nextPage.set(lastPage + 1);
+                        throw new CompletionException(e);
+                    }
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IOException(cause);
+        }
+
+        List<T> items = new ArrayList<T>(first.getTotalCount());
+        for (int page = 1; page <= numPages; page++)
+            items.addAll(pages.get(page).getItems());
+
+        return items;
+    }
+
+    /**
+     * Without num_pages there is nothing to split up, so pages are read one after another until an empty one
+     */
+    private List<T> collectSequentially(Page<T> first) throws IOException {
+        List<T> items = new ArrayList<T>(first.getItems());
+        Page<T> page = first;
+        for (int number = 2; !page.isLast(); number++) {
+            page = fetchPage(number);
+            items.addAll(page.getItems());
+        }
+
+        return items;
+    }
+
+    private Page<T> fetchPage(int page) throws IOException {
+        try {
+            return fetcher.fetch(page);
+        } catch (IOException e) {
+            throw new IOException("Failed to fetch page " + page, e);
+        }
+    }
+}
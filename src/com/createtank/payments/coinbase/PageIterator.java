@@ -0,0 +1,177 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Page;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a paginated list page by page, keeping up to prefetch requests for the following pages in flight.
+ *
+ * Until the first page arrives only that page is requested. After that the window is bounded by the num_pages the
+ * api reports; when a response carries no paging fields the iterator fetches ahead speculatively and stops at the
+ * first empty page.
+ */
+public final class PageIterator<T> implements Iterator<T>, Closeable {
+
+    private static final class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "coinbase-prefetch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final PageFetcher<T> fetcher;
+    private final int prefetch;
+    private final Executor executor;
+    private final ArrayDeque<Future<Page<T>>> window = new ArrayDeque<Future<Page<T>>>();
+
+    private int nextPage = 1;
+    private int lastPage = 1;
+    private boolean finished;
+    private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+    PageIterator(PageFetcher<T> fetcher, int prefetch, Executor executor) {
+        this.fetcher = fetcher;
+        this.prefetch = prefetch;
+        this.executor = executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * @return the executor prefetches run on when none is configured: a cached pool of daemon threads
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished)
+                return false;
+
+            Page<T> page;
+            if (window.isEmpty()) {
+                page = fetch(nextPage++);
+            } else {
+                page = await(window.poll());
+            }
+
+            onPage(page);
+            current = page.getItems().iterator();
+            fill();
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        return current.next();
+    }
+
+    private void onPage(Page<T> page) {
+        if (page.isLast()) {
+            close();
+            return;
+        }
+
+        if (page.getNumPages() > 0)
+            lastPage = page.getNumPages();
+        else
+            lastPage = Integer.MAX_VALUE;
+    }
+
+    private void fill() {
+        while (!finished && window.size() < prefetch && nextPage <= lastPage) {
+            final int page = nextPage++;
+            FutureTask<Page<T>> task = new FutureTask<Page<T>>(() -> fetcher.fetch(page));
+            executor.execute(task);
+            window.add(task);
+        }
+
+        if (!finished && window.isEmpty() && nextPage > lastPage)
+            finished = true;
+    }
+
+    private Page<T> fetch(int page) {
+        try {
+            return fetcher.fetch(page);
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Page<T> await(Future<Page<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for a page"));
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Stops the iteration and cancels any prefetches still in flight. Items of the page already being consumed remain
+     * available
+     */
+    @Override
+    public void close() {
+        finished = true;
+        Future<Page<T>> future;
+        while ((future = window.poll()) != null)
+            future.cancel(true);
+    }
+}
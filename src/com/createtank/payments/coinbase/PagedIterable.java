@@ -0,0 +1,71 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates every item of a paginated list, fetching the following pages in the background while the current one is
+ * consumed. Each iterator or stream starts again from page 1.
+ *
+ * At most the current page plus prefetch pages are held at a time, and no page past the last one reported by the
+ * api is requested. Errors fetching a page are thrown from hasNext() as an {@link java.io.UncheckedIOException}.
+ */
+public final class PagedIterable<T> implements Iterable<T> {
+
+    private final PageFetcher<T> fetcher;
+    private final int prefetch;
+    private final Executor executor;
+
+    PagedIterable(PageFetcher<T> fetcher, int prefetch, Executor executor) {
+        if (prefetch < 0)
+            throw new IllegalArgumentException("prefetch must not be negative");
+
+        this.fetcher = fetcher;
+        this.prefetch = prefetch;
+        this.executor = executor;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @return an iterator over all items. Close it when abandoning the iteration early to cancel outstanding
+     * prefetches
+     */
+    @Override
+    public PageIterator<T> iterator() {
+        return new PageIterator<T>(fetcher, prefetch, executor);
+    }
+
+    /**
+     * @return a sequential stream over all items. Closing the stream cancels outstanding prefetches
+     */
+    public Stream<T> stream() {
+        PageIterator<T> iterator = iterator();
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize((Iterator<T>) iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.exceptions.HttpResponseException;
+import com.createtank.payments.coinbase.payout.PayoutInstruction;
+import com.createtank.payments.coinbase.payout.PayoutListener;
+import com.createtank.payments.coinbase.payout.PayoutResult;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends a list of payouts with a bounded number of workers, each taking the next instruction as soon as its previous
+ * payout is done. A failed payout never stops the batch; it is recorded in its result and the workers carry on.
+ */
+final class PayoutRunner {
+
+    private final CoinbaseApi api;
+    private final List<PayoutInstruction> instructions;
+    private final int concurrency;
+    private final PayoutListener listener;
+    private final Executor executor;
+    private int completed;
+
+    PayoutRunner(CoinbaseApi api, List<PayoutInstruction> instructions, int concurrency, PayoutListener listener,
+                 Executor executor) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+
+        this.api = api;
+        this.instructions = new ArrayList<PayoutInstruction>(instructions);
+        this.concurrency = concurrency;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the result of every instruction, in the order of the instructions
+     * @throws InterruptedIOException if the thread is interrupted while waiting; payouts already sent stay sent
+     */
+    List<PayoutResult> run() throws InterruptedIOException {
+        final int total = instructions.size();
+        final PayoutResult[] results = new PayoutResult[total];
+        final AtomicInteger next = new AtomicInteger();
+
+        int workers = Math.min(concurrency, total);
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < total) {
+                    results[index] = api.sendPayout(index, instructions.get(index));
+                    report(results[index], total);
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+        } catch (InterruptedException e) {
+            next.set(total);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending payouts");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IllegalStateException(cause);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private synchronized void report(PayoutResult result, int total) {
+        completed++;
+        if (listener != null) {
+            try {
+                listener.onResult(result, completed, total);
+            } catch (RuntimeException e) {
+                //a failing listener must not stop the batch; the result is still returned
+            }
+        }
+    }
+
+    /**
+     * @return whether a payout that failed with the given error could succeed if submitted again. Only requests
+     * coinbase refused are final
+     */
+    static boolean isRetryable(IOException error) {
+        return !(error instanceof HttpResponseException) || !((HttpResponseException) error).isRejection();
+    }
+}
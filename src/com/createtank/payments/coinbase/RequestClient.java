@@ -16,263 +16,365 @@ limitations under the License.
 
 package com.createtank.payments.coinbase;
 
+import com.createtank.payments.coinbase.circuit.CircuitBreaker;
+import com.createtank.payments.coinbase.exceptions.ConnectionPoolClosedException;
+import com.createtank.payments.coinbase.exceptions.HttpResponseException;
+import com.createtank.payments.coinbase.exceptions.RateLimitExceededException;
 import com.createtank.payments.coinbase.exceptions.UnsupportedRequestVerbException;
+import com.createtank.payments.coinbase.hedge.HedgePolicy;
+import com.createtank.payments.coinbase.ratelimit.RateLimiter;
+import com.createtank.payments.coinbase.retry.RetryPolicy;
+import com.createtank.payments.coinbase.transport.AbortSignal;
+import com.createtank.payments.coinbase.transport.TransportRequest;
+import com.createtank.payments.coinbase.transport.TransportResponse;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.*;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import com.google.gson.stream.JsonReader;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 
 import javax.net.ssl.*;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URLEncoder;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Singleton for managing web service calls
  * Based HEAVILY on the com.coinbase.api.RpcManager class from the coinbase-android project
+ *
+ * Every call goes through one pipeline: the request is encoded into a {@link TransportRequest}, sent with the api's
+ * {@link com.createtank.payments.coinbase.transport.Transport}, retried once with a refreshed token on a 401 and
+ * decoded straight from the response stream.
  */
 public class RequestClient {
 
-    private static final String BASE_URL = "https://coinbase.com:443/api/v1/";
+    static final String BASE_URL = "https://coinbase.com:443/api/v1/";
 
-    private static enum RequestVerb {
+    static enum RequestVerb {
         GET,
         POST,
         PUT,
         DELETE
     }
 
-    private static JsonObject call(CoinbaseApi api, String method, RequestVerb verb, Map<String,
-            String> params, String accessToken) throws IOException {
-        return call(api, method, verb, params, true, accessToken);
-    }
+    /**
+     * Parses a response into a JsonObject tree. Array responses are wrapped in an object under the "response" key
+     */
+    static final ResponseParser<JsonObject> TREE_PARSER = new ResponseParser<JsonObject>() {
+        @Override
+        public JsonObject parse(JsonReader reader) throws IOException {
+            JsonElement element = new JsonParser().parse(reader);
+            if (element.isJsonArray()) {
+                JsonObject wrapper = new JsonObject();
+                wrapper.add("response", element);
+                return wrapper;
+            }
 
-    private static JsonObject call(CoinbaseApi api, String method, RequestVerb verb, JsonObject json,
-                                   String accessToken) throws IOException, UnsupportedRequestVerbException {
-        return call(api, method, verb, json,true, accessToken);
+            return element.getAsJsonObject();
+        }
+    };
+
+    private static <T> T call(CoinbaseApi api, String method, RequestVerb verb, Map<String,
+            String> params, String accessToken, String idempotencyKey, ResponseParser<T> parser) throws IOException {
+        return execute(api, method, createRequest(method, verb, params, accessToken, idempotencyKey), parser, null);
     }
 
-    private static JsonObject call(CoinbaseApi api, String method, RequestVerb verb, JsonObject json,
-                                   boolean retry, String accessToken) throws IOException, UnsupportedRequestVerbException {
+    private static <T> T call(CoinbaseApi api, String method, RequestVerb verb, JsonObject json,
+                              String accessToken, ResponseParser<T> parser)
+            throws IOException, UnsupportedRequestVerbException {
 
         if (verb == RequestVerb.DELETE || verb == RequestVerb.GET) {
             throw new UnsupportedRequestVerbException();
         }
-        if (api.allowSecure()) {
-
-            HttpClient client = HttpClientBuilder.create().build();
-            String url = BASE_URL + method;
-            HttpUriRequest request;
-
-            switch (verb) {
-                case POST:
-                    request = new HttpPost(url);
-                    break;
-                case PUT:
-                    request = new HttpPut(url);
-                    break;
-                default:
-                    throw new RuntimeException("RequestVerb not implemented: " + verb);
-            }
-
-            ((HttpEntityEnclosingRequestBase) request).setEntity(new StringEntity(json.toString(), ContentType.APPLICATION_JSON));
 
-            if (accessToken != null)
-                request.addHeader("Authorization", String.format("Bearer %s", accessToken));
-
-            request.addHeader("Content-Type", "application/json");
-            HttpResponse response = client.execute(request);
-            int code = response.getStatusLine().getStatusCode();
+        return execute(api, method, createRequest(method, verb, json, accessToken), parser, null);
+    }
 
-            if (code == 401) {
-                if (retry) {
-                    api.refreshAccessToken();
-                    call(api, method, verb, json, false, api.getAccessToken());
-                } else {
-                    throw new IOException("Account is no longer valid");
+    /**
+     * Sends a request, retrying it under the api's {@link RetryPolicy} when it is safe to repeat and fails in a way
+     * that may go away on its own. Each attempt at a read the api's {@link HedgePolicy} covers is hedged
+     * @param sent set once any attempt has been handed to the transport, or null. While it is unset, a failure means
+     * the request cannot have reached coinbase
+     */
+    static <T> T execute(CoinbaseApi api, String method, TransportRequest request, ResponseParser<T> parser,
+                         AtomicBoolean sent) throws IOException {
+        RetryPolicy policy = api.getRetryPolicy();
+        boolean retryable = policy.isRetryable(request.getVerb(),
+                request.getHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER) != null);
+        policy.onRequest();
+
+        HedgePolicy hedgePolicy = api.getHedgePolicy();
+        String endpoint = RequestRecorder.endpointOf(method);
+        boolean hedged = hedgePolicy != null && hedgePolicy.isHedged(request.getVerb(), endpoint);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (hedged) {
+                    if (sent != null)
+                        sent.set(true);
+                    return new HedgedRequest<T>(api, hedgePolicy, method, endpoint, request, parser).execute();
                 }
-            } else if (code != 200) {
-                throw new IOException("HTTP response " + code + " to request " + method);
-            }
 
-            String responseString = EntityUtils.toString(response.getEntity());
-            if(responseString.startsWith("[")) {
-                // Is an array
-                responseString = "{response:" + responseString + "}";
+                return execute(api, method, request, true, parser, null, sent);
+            } catch (IOException e) {
+                long delay = retryable ? policy.retryDelay(attempt, e) : -1;
+                if (delay < 0)
+                    throw e;
+
+                sleep(delay);
             }
 
-            JsonParser parser = new JsonParser();
-            JsonObject resp = (JsonObject) parser.parse(responseString);
-            System.out.println(resp.toString());
-            return resp;
+            //the token may have been refreshed while the previous attempt was failing
+            if (request.getHeader("Authorization") != null)
+                request = request.withHeader("Authorization", bearer(api.currentAccessToken()));
         }
+    }
 
-        String url = BASE_URL + method;
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
 
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setRequestMethod(verb.name());
-        conn.addRequestProperty("Content-Type", "application/json");
+    /**
+     * Sends a request through the api's transport and decodes the response. A 401 refreshes the access token, sharing
+     * the refresh with any other request that failed with the same token, and retries the request once with the new
+     * token.
+     * @param signal aborts the request from another thread, or null
+     */
+    static <T> T execute(CoinbaseApi api, String method, TransportRequest request, boolean retry,
+                         ResponseParser<T> parser, AbortSignal signal) throws IOException {
+        return execute(api, method, request, retry, parser, signal, null);
+    }
 
-        if (accessToken != null)
-            conn.setRequestProperty("Authorization", String.format("Bearer %s", accessToken));
+    private static <T> T execute(CoinbaseApi api, String method, TransportRequest request, boolean retry,
+                                 ResponseParser<T> parser, AbortSignal signal, AtomicBoolean sent)
+            throws IOException {
+        //an open circuit fails the call before it is recorded or paced
+        CircuitBreaker breaker = api.getCircuitBreaker();
+        CircuitBreaker.Permit circuit = breaker != null ? breaker.acquire(RequestRecorder.endpointOf(method)) : null;
 
+        RequestRecorder recorder = new RequestRecorder(api.getMetrics(), method);
+        recorder.setBytesOut(request.getBodyLength());
+        try {
+            TransportResponse response = send(api, request, signal, circuit, sent);
+            try {
+                int code = response.getStatusCode();
+                recorder.setStatusCode(code);
 
-        conn.setDoOutput(true);
-        OutputStreamWriter writer = new OutputStreamWriter(conn.getOutputStream());
-        writer.write(json.toString());
-        writer.flush();
-        writer.close();
+                if (code != 401)
+                    return readResponse(method, response, parser, recorder);
 
-        int code = conn.getResponseCode();
-        if (code == 401) {
+                if (!retry)
+                    throw new HttpResponseException("Account is no longer valid", code);
 
-            if (retry) {
-                api.refreshAccessToken();
-                return call(api, method, verb, json, false, api.getAccessToken());
-            } else {
-                throw new IOException("Account is no longer valid");
+                recorder.tokenRefresh();
+            } finally {
+                response.close();
             }
+        } finally {
+            recorder.finish();
+        }
 
-        } else if (code != 200) {
-            throw new IOException("HTTP response " + code + " to request " + method);
+        if (!api.refreshAccessToken(tokenOf(request)))
+            throw new HttpResponseException("Account is no longer valid", 401);
+
+        return execute(api, method, request.withHeader("Authorization", bearer(api.getAccessToken())), false,
+                parser, signal, sent);
+    }
+
+    /**
+     * Sends a request through the api's transport, waiting for the rate limiter first when one is set, and reports
+     * the outcome to the circuit the call was permitted by
+     */
+    private static TransportResponse send(CoinbaseApi api, TransportRequest request, AbortSignal signal,
+                                          CircuitBreaker.Permit circuit, AtomicBoolean sent) throws IOException {
+        RateLimiter limiter = api.getRateLimiter();
+        RateLimiter.Permit permit;
+        try {
+            permit = limiter != null ? limiter.acquire() : null;
+        } catch (IOException e) {
+            if (circuit != null)
+                circuit.abandon();
+            throw e;
         }
 
-        String responseString = getResponseBody(conn.getInputStream());
-        if (responseString.startsWith("[")) {
-            responseString = "{response:" + responseString + "}";
+        if (sent != null)
+            sent.set(true);
+
+        long start = System.nanoTime();
+        TransportResponse response;
+        try {
+            response = api.getTransport().execute(request, signal);
+        } catch (IOException | RuntimeException e) {
+            if (permit != null)
+                permit.abandon();
+            //neither a hedge aborted by its winner nor a closed pool says anything about the endpoint
+            if (circuit != null) {
+                if (e instanceof IOException && !(e instanceof ConnectionPoolClosedException)
+                        && (signal == null || !signal.isAborted()))
+                    circuit.fail();
+                else
+                    circuit.abandon();
+            }
+            throw e;
         }
 
-        JsonParser parser = new JsonParser();
-        return (JsonObject) parser.parse(responseString);
+        if (permit != null)
+            permit.complete(response.getStatusCode(), response.getHeader("Retry-After"));
+        if (circuit != null)
+            circuit.complete(response.getStatusCode(), System.nanoTime() - start);
+        return response;
     }
 
-    private static JsonObject call(CoinbaseApi api, String method, RequestVerb verb, Map<String, String> params,
-                            boolean retry, String accessToken) throws IOException {
-        if (api.allowSecure()) {
+    /**
+     * Encodes a request carrying a json body
+     */
+    static TransportRequest createRequest(String method, RequestVerb verb, JsonObject json, String accessToken)
+            throws UnsupportedEncodingException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", "application/json");
+        if (accessToken != null)
+            headers.put("Authorization", bearer(accessToken));
 
-            HttpClient client = HttpClientBuilder.create().build();
-            String url = BASE_URL + method;
-            HttpUriRequest request = null;
+        return new TransportRequest(verb.name(), BASE_URL + method, headers, json.toString().getBytes("UTF-8"));
+    }
 
-            if (verb == RequestVerb.POST || verb == RequestVerb.PUT) {
-                switch (verb) {
-                    case POST:
-                        request = new HttpPost(url);
-                        break;
-                    case PUT:
-                        request = new HttpPut(url);
-                        break;
-                    default:
-                        throw new RuntimeException("RequestVerb not implemented: " + verb);
-                }
+    /**
+     * Encodes a request carrying form encoded params, or query params for GET and DELETE
+     */
+    static TransportRequest createRequest(String method, RequestVerb verb, Map<String, String> params,
+                                          String accessToken) throws UnsupportedEncodingException {
+        return createUrlRequest(BASE_URL + method, verb, params, accessToken);
+    }
 
-                List<BasicNameValuePair> paramsBody = new ArrayList<BasicNameValuePair>();
+    /**
+     * Encodes a request carrying form encoded params. When the params carry the idempotency key as
+     * {@link RetryPolicy#IDEMPOTENCY_KEY_PARAM}, the request is marked with it so that it can be retried safely. Other
+     * writes, such as buys and sells, have no key coinbase honours and are sent once
+     */
+    static TransportRequest createRequest(String method, RequestVerb verb, Map<String, String> params,
+                                          String accessToken, String idempotencyKey)
+            throws UnsupportedEncodingException {
+        TransportRequest request = createUrlRequest(BASE_URL + method, verb, params, accessToken);
+        boolean honoured = idempotencyKey != null && params != null
+                && idempotencyKey.equals(params.get(RetryPolicy.IDEMPOTENCY_KEY_PARAM));
+        return honoured ? request.withHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER, idempotencyKey) : request;
+    }
 
-                if (params != null) {
-                    List<BasicNameValuePair> convertedParams = convertParams(params);
-                    paramsBody.addAll(convertedParams);
-                }
+    /**
+     * Encodes a request to an absolute url carrying form encoded params, or query params for GET and DELETE
+     */
+    static TransportRequest createUrlRequest(String url, RequestVerb verb, Map<String, String> params,
+                                             String accessToken) throws UnsupportedEncodingException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        if (accessToken != null)
+            headers.put("Authorization", bearer(accessToken));
 
-                ((HttpEntityEnclosingRequestBase) request).setEntity(new UrlEncodedFormEntity(paramsBody, "UTF-8"));
-            } else {
-                if (params != null) {
-                    url = url + "?" + createRequestParams(params);
-                }
+        String encoded = params != null && !params.isEmpty() ? encodeParams(params) : null;
+        if (verb == RequestVerb.GET || verb == RequestVerb.DELETE) {
+            if (encoded != null)
+                url = url + "?" + encoded;
 
-                if (verb == RequestVerb.GET) {
-                    request = new HttpGet(url);
-                } else if (verb == RequestVerb.DELETE) {
-                    request = new HttpDelete(url);
-                }
-            }
-            if (request == null)
-                return null;
-
-            if (accessToken != null)
-                request.addHeader("Authorization", String.format("Bearer %s", accessToken));
-            System.out.println("auth header: " + request.getFirstHeader("Authorization"));
-            HttpResponse response = client.execute(request);
-            int code = response.getStatusLine().getStatusCode();
-
-            if (code == 401) {
-                if (retry) {
-                    api.refreshAccessToken();
-                    call(api, method, verb, params, false, api.getAccessToken());
-                } else {
-                    throw new IOException("Account is no longer valid");
-                }
-            } else if (code != 200) {
-                throw new IOException("HTTP response " + code + " to request " + method);
-            }
+            return new TransportRequest(verb.name(), url, headers, null);
+        }
 
-            String responseString = EntityUtils.toString(response.getEntity());
-            if(responseString.startsWith("[")) {
-                // Is an array
-                responseString = "{response:" + responseString + "}";
-            }
+        headers.put("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        byte[] body = encoded != null ? encoded.getBytes("UTF-8") : new byte[0];
+        return new TransportRequest(verb.name(), url, headers, body);
+    }
 
-            JsonParser parser = new JsonParser();
-            JsonObject resp = (JsonObject) parser.parse(responseString);
-            System.out.println(resp.toString());
-            return resp;
+    /**
+     * Streams the json body of a non-401 response into the parser, failing on any status other than 200. A 429 fails
+     * with a {@link RateLimitExceededException} carrying the server's Retry-After
+     */
+    static <T> T readResponse(String method, TransportResponse response, ResponseParser<T> parser,
+                              RequestRecorder recorder) throws IOException {
+        int code = response.getStatusCode();
+        if (code != 200) {
+            long retryAfter = RateLimiter.parseRetryAfter(response.getHeader("Retry-After"),
+                    System.currentTimeMillis());
+            if (code == 429)
+                throw new RateLimitExceededException(method, retryAfter);
+
+            throw new HttpResponseException("HTTP response " + code + " to request " + method, code, retryAfter);
         }
 
-        String paramStr = createRequestParams(params);
-        String url = BASE_URL + method;
+        return readBody(recorder.count(response.getBody()), parser);
+    }
 
-        if (paramStr != null && verb == RequestVerb.GET || verb == RequestVerb.DELETE)
-            url += "?" + paramStr;
+    /**
+     * Streams a response body into the parser without buffering it, closing the stream afterwards
+     */
+    static <T> T readBody(InputStream is, ResponseParser<T> parser) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            return parser.parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
 
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setRequestMethod(verb.name());
+    static String bearer(String accessToken) {
+        return "Bearer " + accessToken;
+    }
 
-        if (accessToken != null)
-            conn.setRequestProperty("Authorization", String.format("Bearer %s", accessToken));
-
-        if (verb != RequestVerb.GET && verb != RequestVerb.DELETE && paramStr != null) {
-            conn.setDoOutput(true);
-            OutputStreamWriter writer = new OutputStreamWriter(conn.getOutputStream());
-            writer.write(paramStr);
-            writer.flush();
-            writer.close();
-        }
+    /**
+     * @return the access token a request was authorized with, or null
+     */
+    static String tokenOf(TransportRequest request) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer "))
+            return null;
 
-        int code = conn.getResponseCode();
-        if (code == 401) {
+        return authorization.substring("Bearer ".length());
+    }
 
-            if (retry) {
-                api.refreshAccessToken();
-                return call(api, method, verb, params, false, api.getAccessToken());
-            } else {
-                throw new IOException("Account is no longer valid");
+    /**
+     * Form encodes params as UTF-8
+     */
+    static String encodeParams(Map<String, String> params) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            if (sb.length() > 0)
+                sb.append('&');
+
+            sb.append(URLEncoder.encode(entry.getKey(), "UTF-8"));
+            if (entry.getValue() != null) {
+                sb.append('=');
+                sb.append(URLEncoder.encode(entry.getValue(), "UTF-8"));
             }
-
-        } else if (code != 200) {
-            throw new IOException("HTTP response " + code + " to request " + method);
         }
 
-        String responseString = getResponseBody(conn.getInputStream());
-        if (responseString.startsWith("[")) {
-            responseString = "{response:" + responseString + "}";
-        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints a response when the api has response logging enabled
+     */
+    private static JsonObject log(CoinbaseApi api, JsonObject response) {
+        if (api.isLoggingEnabled() && response != null)
+            System.out.println(response.toString());
 
-        JsonParser parser = new JsonParser();
-        return (JsonObject) parser.parse(responseString);
+        return response;
     }
 
+    /**
+     * @deprecated joins params without escaping them, and is not used by the client, which form encodes requests
+     * itself. Will be removed
+     */
+    @Deprecated
     public static String createRequestParams(Map<String, String> params) {
         if (params == null)
             return null;
@@ -297,36 +399,66 @@ public class RequestClient {
     }
 
     public static JsonObject get(CoinbaseApi api, String method, String accessToken) throws IOException {
-        return call(api, method, RequestVerb.GET, (Map<String, String>) null, accessToken);
+        return log(api, call(api, method, RequestVerb.GET, (Map<String, String>) null, accessToken, null, TREE_PARSER));
     }
 
     public static JsonObject get(CoinbaseApi api, String method, Map<String, String> params, String accessToken)
             throws IOException {
-        return call(api, method, RequestVerb.GET, params, accessToken);
+        return log(api, call(api, method, RequestVerb.GET, params, accessToken, null, TREE_PARSER));
     }
 
     public static JsonObject post(CoinbaseApi api, String method, Map<String, String> params, String accessToken)
             throws IOException {
-        return call(api, method, RequestVerb.POST, params, accessToken);
+        return log(api, call(api, method, RequestVerb.POST, params, accessToken, null, TREE_PARSER));
     }
 
     public static JsonObject post(CoinbaseApi api, String method, JsonObject json, String accessToken)
             throws IOException, UnsupportedRequestVerbException {
-        return call(api, method, RequestVerb.POST, json, accessToken);
+        return log(api, call(api, method, RequestVerb.POST, json, accessToken, TREE_PARSER));
     }
 
     public static JsonObject put(CoinbaseApi api, String method, Map<String, String> params, String accessToken)
             throws IOException {
-        return call(api, method, RequestVerb.PUT, params, accessToken);
+        return log(api, call(api, method, RequestVerb.PUT, params, accessToken, null, TREE_PARSER));
     }
 
     public static JsonObject put(CoinbaseApi api, String method, JsonObject json, String accessToken)
             throws IOException, UnsupportedRequestVerbException {
-        return call(api, method, RequestVerb.PUT, json, accessToken);
+        return log(api, call(api, method, RequestVerb.PUT, json, accessToken, TREE_PARSER));
     }
 
     public static JsonObject delete(CoinbaseApi api, String method, Map<String, String> params, String accessToken) throws IOException {
-        return call(api, method, RequestVerb.DELETE, params, accessToken);
+        return log(api, call(api, method, RequestVerb.DELETE, params, accessToken, null, TREE_PARSER));
+    }
+
+    static <T> T get(CoinbaseApi api, String method, Map<String, String> params, String accessToken,
+                     ResponseParser<T> parser) throws IOException {
+        return call(api, method, RequestVerb.GET, params, accessToken, null, parser);
+    }
+
+    static <T> T post(CoinbaseApi api, String method, Map<String, String> params, String accessToken,
+                      ResponseParser<T> parser) throws IOException {
+        return call(api, method, RequestVerb.POST, params, accessToken, null, parser);
+    }
+
+    /**
+     * Posts a write that is safe to retry because the server recognises its idempotency key
+     * @param sent set once the write has been handed to the transport, or null
+     */
+    static <T> T post(CoinbaseApi api, String method, Map<String, String> params, String accessToken,
+                      String idempotencyKey, ResponseParser<T> parser, AtomicBoolean sent) throws IOException {
+        return execute(api, method, createRequest(method, RequestVerb.POST, params, accessToken, idempotencyKey),
+                parser, sent);
+    }
+
+    static <T> T put(CoinbaseApi api, String method, Map<String, String> params, String accessToken,
+                     ResponseParser<T> parser) throws IOException {
+        return call(api, method, RequestVerb.PUT, params, accessToken, null, parser);
+    }
+
+    static <T> T delete(CoinbaseApi api, String method, Map<String, String> params, String accessToken,
+                        ResponseParser<T> parser) throws IOException {
+        return call(api, method, RequestVerb.DELETE, params, accessToken, null, parser);
     }
 
     public static String getResponseBody(InputStream is) throws IOException {
@@ -340,6 +472,10 @@ public class RequestClient {
         return sb.toString();
     }
 
+    /**
+     * @deprecated not used by the client, which form encodes requests itself. Will be removed
+     */
+    @Deprecated
     public static List<BasicNameValuePair> convertParams(Map<String, String> params) {
         Set<Map.Entry<String, String>> entries = params.entrySet();
         List<BasicNameValuePair> pairs = new ArrayList<BasicNameValuePair>();
@@ -0,0 +1,137 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.metrics.ClientMetrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Collects the status, size and latency of a single request and reports them to the api's {@link ClientMetrics}
+ * once the request has finished
+ */
+class RequestRecorder {
+
+    private final ClientMetrics metrics;
+    private final String endpoint;
+    private final long startNanos;
+    private int statusCode;
+    private long bytesOut;
+    private long bytesIn;
+
+    RequestRecorder(ClientMetrics metrics, String method) {
+        this.metrics = metrics;
+        this.endpoint = endpointOf(method);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Maps a request path to its logical endpoint by replacing id segments, so that
+     * "transactions/5011f33df8182b142400000e/complete_request" is recorded as "transactions/:id/complete_request"
+     */
+    static String endpointOf(String method) {
+        int start = 0;
+        StringBuilder sb = null;
+        while (start <= method.length()) {
+            int end = method.indexOf('/', start);
+            if (end < 0)
+                end = method.length();
+
+            boolean id = false;
+            for (int i = start; i < end; ++i) {
+                char c = method.charAt(i);
+                if ((c < 'a' || c > 'z') && c != '_') {
+                    id = true;
+                    break;
+                }
+            }
+
+            if (id && sb == null) {
+                sb = new StringBuilder(method.length());
+                sb.append(method, 0, start);
+            }
+
+            if (sb != null) {
+                if (id)
+                    sb.append(":id");
+                else
+                    sb.append(method, start, end);
+
+                if (end < method.length())
+                    sb.append('/');
+            }
+
+            start = end + 1;
+        }
+
+        return sb != null ? sb.toString() : method;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    void setBytesOut(long bytesOut) {
+        this.bytesOut = bytesOut > 0 ? bytesOut : 0;
+    }
+
+    void tokenRefresh() {
+        metrics.onTokenRefresh(endpoint);
+    }
+
+    /**
+     * Wraps a response body so that the bytes read from it are counted
+     */
+    InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    bytesIn++;
+
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0)
+                    bytesIn += read;
+
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytesIn += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    void finish() {
+        metrics.onRequest(endpoint, statusCode, System.nanoTime() - startNanos, bytesOut, bytesIn);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Address;
+import com.createtank.payments.coinbase.models.JsonStreams;
+import com.createtank.payments.coinbase.models.Page;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.Transfer;
+import com.createtank.payments.coinbase.models.User;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming decoders for the coinbase api responses. Each one reads the response envelope and builds the models
+ * directly from the stream, without an intermediate String or JsonObject tree.
+ */
+final class ResponseParsers {
+
+    static final ResponseParser<User> USER = reader -> {
+        final User[] user = new User[1];
+        readList(reader, "users", "user", User::fromJson, model -> {
+            if (user[0] == null)
+                user[0] = model;
+        });
+
+        return user[0];
+    };
+
+    static final ResponseParser<Address[]> ADDRESSES = reader -> {
+        List<Address> addresses = new ArrayList<Address>();
+        readList(reader, "addresses", "address", Address::fromJson, addresses::add);
+
+        return addresses.toArray(new Address[addresses.size()]);
+    };
+
+    static final ResponseParser<Transaction[]> TRANSACTIONS = reader -> {
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        readList(reader, "transactions", "transaction", Transaction::fromJson, transactions::add);
+
+        return transactions.toArray(new Transaction[transactions.size()]);
+    };
+
+    static final ResponseParser<Transaction> TRANSACTION = reader -> readField(reader, "transaction",
+            Transaction::fromJson);
+
+    static final ResponseParser<Transaction> TRANSACTION_RESULT = successResult("transaction", Transaction::fromJson);
+
+    static final ResponseParser<WriteResult<Transaction>> TRANSACTION_WRITE = writeResult("transaction",
+            Transaction::fromJson);
+
+    static final ResponseParser<Transfer> TRANSFER_RESULT = successResult("transfer", Transfer::fromJson);
+
+    static final ResponseParser<WriteResult<Transfer>> TRANSFER_WRITE = writeResult("transfer", Transfer::fromJson);
+
+    static final ResponseParser<Boolean> SUCCESS = reader -> {
+        boolean success = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("success"))
+                success = JsonStreams.nextBoolean(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return success;
+    };
+
+    /**
+     * The generate_receive_address response carries the address fields next to "success" at the top level
+     */
+    static final ResponseParser<Address> GENERATED_ADDRESS = reader -> {
+        boolean success = false;
+        String address = null;
+        String callbackUrl = null;
+        String label = null;
+        String createdAt = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("success"))
+                success = JsonStreams.nextBoolean(reader);
+            else if (name.equals("address"))
+                address = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("callback_url"))
+                callbackUrl = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("label"))
+                label = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("created_at"))
+                createdAt = JsonStreams.nextStringOrNull(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return success ? new Address(address, callbackUrl, label, createdAt) : null;
+    };
+
+    private ResponseParsers() {
+    }
+
+    /**
+     * Creates a parser that hands every model in a paged list to the listener as soon as it has been read
+     */
+    static <T> ResponseParser<Void> list(final String listName, final String itemName,
+                                         final ResponseParser<T> itemParser, final ModelListener<? super T> listener) {
+        return reader -> {
+            readList(reader, listName, itemName, itemParser, listener);
+            return null;
+        };
+    }
+
+    /**
+     * Reads a response of the form {"listName": [{"itemName": {...}}, ...], ...}, passing each item to the listener
+     */
+    static <T> void readList(JsonReader reader, String listName, String itemName, ResponseParser<T> itemParser,
+                             ModelListener<? super T> listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals(listName)) {
+                reader.skipValue();
+                continue;
+            }
+
+            readItems(reader, itemName, itemParser, listener);
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Creates a parser for a paged list response that keeps the items together with the paging fields
+     */
+    static <T> ResponseParser<Page<T>> page(final String listName, final String itemName,
+                                            final ResponseParser<T> itemParser) {
+        return reader -> {
+            final List<T> items = new ArrayList<T>();
+            int currentPage = 0;
+            int numPages = 0;
+            int totalCount = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(listName))
+                    readItems(reader, itemName, itemParser, items::add);
+                else if (name.equals("current_page"))
+                    currentPage = JsonStreams.nextInt(reader);
+                else if (name.equals("num_pages"))
+                    numPages = JsonStreams.nextInt(reader);
+                else if (name.equals("total_count"))
+                    totalCount = JsonStreams.nextInt(reader);
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+
+            return new Page<T>(items, currentPage, numPages, totalCount);
+        };
+    }
+
+    /**
+     * Reads an array of the form [{"itemName": {...}}, ...], or a json null, passing each item to the listener
+     */
+    private static <T> void readItems(JsonReader reader, String itemName, ResponseParser<T> itemParser,
+                                      ModelListener<? super T> listener) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            T item = readField(reader, itemName, itemParser);
+            if (item != null)
+                listener.onModel(item);
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads an object, returning the value of one of its fields and skipping the rest
+     */
+    static <T> T readField(JsonReader reader, String fieldName, ResponseParser<T> fieldParser) throws IOException {
+        T value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals(fieldName))
+                reader.skipValue();
+            else if (!JsonStreams.skipNull(reader))
+                value = fieldParser.parse(reader);
+        }
+        reader.endObject();
+
+        return value;
+    }
+
+    /**
+     * Creates a parser for write responses of the form {"success": true, "fieldName": {...}}, returning null when
+     * success is false
+     */
+    static <T> ResponseParser<T> successResult(final String fieldName, final ResponseParser<T> fieldParser) {
+        final ResponseParser<WriteResult<T>> parser = writeResult(fieldName, fieldParser);
+        return reader -> {
+            WriteResult<T> result = parser.parse(reader);
+            return result.success ? result.value : null;
+        };
+    }
+
+    /**
+     * Creates a parser for write responses of the form {"success": false, "errors": ["..."], "fieldName": {...}}
+     * that keeps the errors coinbase gives for a rejected write
+     */
+    static <T> ResponseParser<WriteResult<T>> writeResult(final String fieldName,
+                                                          final ResponseParser<T> fieldParser) {
+        return reader -> {
+            boolean success = false;
+            T value = null;
+            List<String> errors = Collections.emptyList();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("success"))
+                    success = JsonStreams.nextBoolean(reader);
+                else if (name.equals("errors"))
+                    errors = readErrors(reader);
+                else if (!name.equals(fieldName))
+                    reader.skipValue();
+                else if (!JsonStreams.skipNull(reader))
+                    value = fieldParser.parse(reader);
+            }
+            reader.endObject();
+
+            return new WriteResult<T>(success, value, errors);
+        };
+    }
+
+    /**
+     * Reads an array of error messages, or a single message, skipping anything that is not a plain value
+     */
+    private static List<String> readErrors(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return Collections.emptyList();
+
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return Collections.emptyList();
+        }
+
+        if (reader.peek() != JsonToken.BEGIN_ARRAY)
+            return Collections.singletonList(JsonStreams.nextStringOrNull(reader));
+
+        List<String> errors = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+
+            String error = JsonStreams.nextStringOrNull(reader);
+            if (error != null)
+                errors.add(error);
+        }
+        reader.endArray();
+
+        return errors;
+    }
+
+    /**
+     * The decoded response to a write: whether coinbase accepted it, the model it returned and any errors it gave
+     */
+    static final class WriteResult<T> {
+        final boolean success;
+        final T value;
+        final List<String> errors;
+
+        WriteResult(boolean success, T value, List<String> errors) {
+            this.success = success;
+            this.value = value;
+            this.errors = errors;
+        }
+    }
+}
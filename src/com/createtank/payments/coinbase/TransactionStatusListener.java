@@ -0,0 +1,44 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.TransactionStatus;
+
+import java.io.IOException;
+
+/**
+ * Receives the status changes of the transactions a {@link TransactionWatcher} watches. Calls are made one at a time
+ * from the watcher's thread, so they should be quick.
+ */
+public interface TransactionStatusListener {
+
+    /**
+     * Called once a watched transaction is no longer pending, after which it is no longer watched
+     * @param transaction the transaction as last read
+     * @param previous its status when it was last read before, or null if it was never read
+     */
+    void onStatusChange(Transaction transaction, TransactionStatus previous);
+
+    /**
+     * Called when coinbase refuses to return a watched transaction, for example because it does not exist, after
+     * which it is no longer watched. Failures that may pass, such as timeouts, are retried instead
+     */
+    default void onFailure(String transactionId, IOException error) {
+    }
+}
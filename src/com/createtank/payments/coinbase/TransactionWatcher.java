@@ -0,0 +1,300 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase;
+
+import com.createtank.payments.coinbase.exceptions.HttpResponseException;
+import com.createtank.payments.coinbase.models.Page;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.TransactionStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches pending transactions, such as sends and money requests, and tells a listener when they settle.
+ *
+ * Each transaction is polled on its own schedule: every tenth of its age, between a minimum and a maximum interval, so
+ * a transaction created a minute ago is checked every few seconds and one created yesterday a couple of times an
+ * hour. When several transactions are due at once, the watcher reads the transaction list, newest first, instead of
+ * each transaction on its own, for as long as the pages it still expects to read are fewer than the transactions
+ * they would resolve. The pages are estimated before the first one is read, from the age of the oldest due
+ * transaction and the time the pages read earlier spanned, so transactions too old to be worth listing are read
+ * one by one straight away. Until the watcher has read a page it has nothing to estimate from, and only tries the
+ * list for at least {@value #MIN_UNESTIMATED_LIST} due transactions. Whatever the list did not resolve is read one by
+ * one.
+ *
+ * Polling runs on a single background thread until the watcher is closed.
+ */
+public class TransactionWatcher implements Closeable {
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int AGE_DIVISOR = 10;
+    private static final int MIN_UNESTIMATED_LIST = 8;
+
+    private final CoinbaseApi api;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<String, Watch>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong requestCount = new AtomicLong();
+    //the time between two consecutive transactions in the list, as last read, or 0 if unknown; polling thread only
+    private double millisPerItem;
+
+    /**
+     * Starts a watcher polling between {@link #DEFAULT_MIN_INTERVAL_MILLIS} and {@link #DEFAULT_MAX_INTERVAL_MILLIS}
+     */
+    public TransactionWatcher(CoinbaseApi api) {
+        this(api, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param minIntervalMillis the shortest time between two polls of a transaction
+     * @param maxIntervalMillis the longest time between two polls of a transaction
+     */
+    public TransactionWatcher(CoinbaseApi api, long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis)
+            throw new IllegalArgumentException("intervals must be positive, with the maximum at least the minimum");
+
+        this.api = api;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "coinbase-transaction-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.unconfigurableScheduledExecutorService(executor);
+        long tick = Math.max(1, Math.min(1000, minIntervalMillis / 4));
+        scheduler.scheduleWithFixedDelay(this::poll, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Watches a transaction of unknown status. It is read at the next poll; if it is not pending then, the listener is
+     * told straight away
+     */
+    public void watch(String transactionId, TransactionStatusListener listener) {
+        watches.put(transactionId, new Watch(transactionId, null, -1, listener));
+    }
+
+    /**
+     * Watches a transaction that was just read, such as the result of sendMoney or requestMoney. Transactions that are
+     * not pending are ignored
+     */
+    public void watch(Transaction transaction, TransactionStatusListener listener) {
+        if (transaction.getStatus() != TransactionStatus.PENDING || transaction.getId() == null)
+            return;
+
+        Watch watch = new Watch(transaction.getId(), TransactionStatus.PENDING, transaction.getCreatedAtMillis(),
+                listener);
+        watch.nextPollAt = System.currentTimeMillis() + watch.interval(System.currentTimeMillis());
+        watches.put(transaction.getId(), watch);
+    }
+
+    /**
+     * @return whether the transaction was being watched
+     */
+    public boolean unwatch(String transactionId) {
+        return watches.remove(transactionId) != null;
+    }
+
+    public int getWatchedCount() {
+        return watches.size();
+    }
+
+    /**
+     * @return the number of requests made to coinbase so far
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Stops polling. A poll in progress finishes first
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    private void poll() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, Watch> due = new HashMap<String, Watch>();
+            for (Watch watch : watches.values()) {
+                if (watch.nextPollAt <= now)
+                    due.put(watch.id, watch);
+            }
+
+            if (due.size() > 1)
+                pollList(due);
+            for (Watch watch : due.values())
+                pollOne(watch);
+        } catch (RuntimeException e) {
+            //a throwing task is never run again, so the next tick retries whatever this one missed
+        }
+    }
+
+    /**
+     * Resolves due transactions from the transaction list, removing them from {@code due}
+     */
+    private void pollList(Map<String, Watch> due) {
+        if (!worthListing(due, System.currentTimeMillis()))
+            return;
+
+        long newestRead = Long.MIN_VALUE;
+        long oldestRead = Long.MAX_VALUE;
+        int datedRead = 0;
+        for (int number = 1; ; number++) {
+            Page<Transaction> page;
+            try {
+                requestCount.incrementAndGet();
+                page = api.getTransactionsPage(number, CoinbaseApi.MAX_PAGE_LIMIT);
+            } catch (IOException e) {
+                return;
+            }
+
+            for (Transaction transaction : page.getItems()) {
+                long createdAt = transaction.getCreatedAtMillis();
+                if (createdAt >= 0) {
+                    newestRead = Math.max(newestRead, createdAt);
+                    oldestRead = Math.min(oldestRead, createdAt);
+                    datedRead++;
+                }
+
+                Watch watch = due.remove(transaction.getId());
+                if (watch != null)
+                    update(watch, transaction);
+            }
+
+            if (datedRead > 1 && newestRead > oldestRead)
+                millisPerItem = (double) (newestRead - oldestRead) / (datedRead - 1);
+
+            if (page.isLast() || due.isEmpty() || oldestRead == Long.MAX_VALUE || !worthListing(due, oldestRead))
+                return;
+        }
+    }
+
+    /**
+     * @param from the creation time the list would be read on from, newest first
+     * @return whether the pages expected to reach the oldest due transaction created before {@code from} are fewer
+     * than the due transactions they would resolve
+     */
+    private boolean worthListing(Map<String, Watch> due, long from) {
+        long oldestDue = Long.MAX_VALUE;
+        int listable = 0;
+        for (Watch watch : due.values()) {
+            if (watch.createdAtMillis >= 0 && watch.createdAtMillis < from) {
+                oldestDue = Math.min(oldestDue, watch.createdAtMillis);
+                listable++;
+            }
+        }
+
+        if (listable < 2)
+            return false;
+        if (millisPerItem <= 0)
+            return listable >= MIN_UNESTIMATED_LIST;
+
+        double pages = Math.ceil((from - oldestDue) / (millisPerItem * CoinbaseApi.MAX_PAGE_LIMIT));
+        return pages < listable;
+    }
+
+    private void pollOne(Watch watch) {
+        Transaction transaction;
+        try {
+            requestCount.incrementAndGet();
+            transaction = api.fetchTransaction(watch.id);
+        } catch (HttpResponseException e) {
+            if (!e.isRejection()) {
+                watch.nextPollAt = System.currentTimeMillis() + watch.interval(System.currentTimeMillis());
+                return;
+            }
+
+            if (watches.remove(watch.id, watch)) {
+                try {
+                    watch.listener.onFailure(watch.id, e);
+                } catch (RuntimeException listenerError) {
+                    //one failing listener must not stop the others from being told
+                }
+            }
+            return;
+        } catch (IOException e) {
+            watch.nextPollAt = System.currentTimeMillis() + watch.interval(System.currentTimeMillis());
+            return;
+        }
+
+        update(watch, transaction);
+    }
+
+    private void update(Watch watch, Transaction transaction) {
+        TransactionStatus previous = watch.status;
+        if (transaction.getCreatedAtMillis() >= 0)
+            watch.createdAtMillis = transaction.getCreatedAtMillis();
+
+        if (transaction.getStatus() == TransactionStatus.PENDING) {
+            watch.status = TransactionStatus.PENDING;
+            long now = System.currentTimeMillis();
+            watch.nextPollAt = now + watch.interval(now);
+            return;
+        }
+
+        if (watches.remove(watch.id, watch)) {
+            try {
+                watch.listener.onStatusChange(transaction, previous);
+            } catch (RuntimeException e) {
+                //one failing listener must not stop the others from being told
+            }
+        }
+    }
+
+    private final class Watch {
+        final String id;
+        final TransactionStatusListener listener;
+        final long watchedSince = System.currentTimeMillis();
+        volatile TransactionStatus status;
+        volatile long createdAtMillis;
+        volatile long nextPollAt;
+
+        Watch(String id, TransactionStatus status, long createdAtMillis, TransactionStatusListener listener) {
+            this.id = id;
+            this.status = status;
+            this.createdAtMillis = createdAtMillis;
+            this.listener = listener;
+        }
+
+        /**
+         * @return the time until the next poll: a tenth of the transaction's age, within the configured bounds
+         */
+        long interval(long now) {
+            long age = now - (createdAtMillis >= 0 ? createdAtMillis : watchedSince);
+            return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, age / AGE_DIVISOR));
+        }
+    }
+}
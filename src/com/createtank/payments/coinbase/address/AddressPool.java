@@ -0,0 +1,303 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.address;
+
+import com.createtank.payments.coinbase.CoinbaseApi;
+import com.createtank.payments.coinbase.models.Address;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps receive addresses generated ahead of time, so that checkout gets one without a round trip to coinbase.
+ *
+ * Addresses are handed out from a lock-free queue. Whenever fewer than the low-water mark are left, the pool is
+ * refilled up to its capacity in the background on the api's prefetch executor; a failed refill is retried with
+ * growing delays, up to a minute, on the next hand-out after the delay. When the pool runs dry, {@link #take()} falls
+ * back to generating an address on the spot.
+ *
+ * With a file, unissued addresses survive restarts. The file is a log with a line per generated and per issued
+ * address. An issue is written before the address is handed out, so that no address is handed out twice after the
+ * process dies; it is not forced to disk, so this does not hold for a crash of the machine. The log is compacted on
+ * open.
+ */
+public class AddressPool implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MIN_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final CoinbaseApi api;
+    private final int capacity;
+    private final int lowWater;
+    private final String callbackUrl;
+    private final String label;
+    private final Executor executor;
+    private final FileChannel log;
+    private final ConcurrentLinkedQueue<Address> available = new ConcurrentLinkedQueue<Address>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refillFailures = new LongAdder();
+    private volatile long retryAtNanos;
+    private long retryDelayNanos;
+    private volatile boolean closed;
+
+    /**
+     * Creates an in-memory pool and starts filling it
+     * @param capacity the number of addresses kept
+     * @param lowWater the number of addresses left below which the pool is refilled
+     */
+    public AddressPool(CoinbaseApi api, int capacity, int lowWater) throws IOException {
+        this(api, capacity, lowWater, null, null, null);
+    }
+
+    /**
+     * Creates a pool and starts filling it
+     * @param capacity the number of addresses kept
+     * @param lowWater the number of addresses left below which the pool is refilled
+     * @param callbackUrl the callback url of the addresses generated, or null
+     * @param label the label of the addresses generated, or null
+     * @param file the log unissued addresses are kept in across restarts, or null to keep them in memory only
+     */
+    public AddressPool(CoinbaseApi api, int capacity, int lowWater, String callbackUrl, String label, File file)
+            throws IOException {
+        if (capacity < 1 || lowWater < 1 || lowWater > capacity)
+            throw new IllegalArgumentException("capacity and low-water mark must be positive, with the mark at most "
+                    + "the capacity");
+
+        this.api = api;
+        this.capacity = capacity;
+        this.lowWater = lowWater;
+        this.callbackUrl = callbackUrl;
+        this.label = label;
+        this.executor = api.getPrefetchExecutor();
+        this.log = file != null ? openLog(file) : null;
+
+        refillIfLow();
+    }
+
+    /**
+     * Hands out an address from the pool without blocking
+     * @return an unused address, or null if the pool is empty
+     * @throws IOException if the issue could not be written to the log; the address stays in the pool
+     */
+    public Address poll() throws IOException {
+        Address address = available.poll();
+        if (address == null) {
+            misses.increment();
+            refillIfLow();
+            return null;
+        }
+
+        if (log != null) {
+            try {
+                append("-" + address.getAddress() + "\n");
+            } catch (IOException e) {
+                available.add(address);
+                throw e;
+            }
+        }
+
+        size.decrementAndGet();
+        issued.increment();
+        refillIfLow();
+        return address;
+    }
+
+    /**
+     * Hands out an address from the pool, or generates one if the pool is empty
+     */
+    public Address take() throws IOException {
+        Address address = poll();
+        if (address != null)
+            return address;
+
+        address = generate();
+        issued.increment();
+        return address;
+    }
+
+    /**
+     * Fills the pool up to its capacity, waiting for the addresses to be generated. Useful on startup, before the
+     * first checkout
+     */
+    public void fill() throws IOException {
+        while (!closed && size.get() < capacity)
+            add(generate());
+    }
+
+    //region metrics
+    /**
+     * @return the number of addresses in the pool
+     */
+    public int getAvailableCount() {
+        return size.get();
+    }
+
+    public long getIssuedCount() {
+        return issued.sum();
+    }
+
+    /**
+     * @return the number of addresses generated for the pool
+     */
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    /**
+     * @return the number of times the pool was found empty
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getRefillFailureCount() {
+        return refillFailures.sum();
+    }
+    //endregion
+
+    /**
+     * Stops refilling and closes the log. Unissued addresses stay in the log for the next start
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (log != null) {
+            synchronized (log) {
+                log.close();
+            }
+        }
+    }
+
+    private void refillIfLow() {
+        if (closed || size.get() >= lowWater || System.nanoTime() - retryAtNanos < 0)
+            return;
+
+        if (!refilling.compareAndSet(false, true))
+            return;
+
+        try {
+            executor.execute(this::refill);
+        } catch (RejectedExecutionException e) {
+            refilling.set(false);
+        }
+    }
+
+    private void refill() {
+        try {
+            while (!closed && size.get() < capacity)
+                add(generate());
+            retryDelayNanos = 0;
+        } catch (IOException | RuntimeException e) {
+            refillFailures.increment();
+            retryDelayNanos = Math.min(MAX_RETRY_DELAY_NANOS, Math.max(MIN_RETRY_DELAY_NANOS, retryDelayNanos * 2));
+            retryAtNanos = System.nanoTime() + retryDelayNanos;
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    private Address generate() throws IOException {
+        Address address = api.generateReceiveAddress(callbackUrl, label);
+        if (address == null || address.getAddress() == null)
+            throw new IOException("Coinbase did not generate an address");
+
+        return address;
+    }
+
+    private void add(Address address) throws IOException {
+        if (log != null)
+            append("+" + address.toJson() + "\n");
+
+        available.add(address);
+        size.incrementAndGet();
+        generated.increment();
+    }
+
+    private void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(UTF_8));
+        synchronized (log) {
+            while (bytes.hasRemaining())
+                log.write(bytes);
+        }
+    }
+
+    /**
+     * Loads the unissued addresses of a log, rewrites it with only those, and opens it for appending
+     */
+    private FileChannel openLog(File file) throws IOException {
+        Map<String, Address> unissued = new LinkedHashMap<String, Address>();
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        if (line.startsWith("+")) {
+                            Address address = Address.fromJson(new JsonParser().parse(line.substring(1))
+                                    .getAsJsonObject());
+                            unissued.put(address.getAddress(), address);
+                        } else if (line.startsWith("-")) {
+                            unissued.remove(line.substring(1));
+                        }
+                    } catch (RuntimeException e) {
+                        //a line torn by a crash; an address in it was never handed out
+                    }
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), UTF_8)) {
+            for (Address address : unissued.values())
+                writer.write("+" + address.toJson() + "\n");
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Address address : unissued.values()) {
+            available.add(address);
+            size.incrementAndGet();
+        }
+
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
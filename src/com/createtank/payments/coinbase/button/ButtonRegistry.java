@@ -0,0 +1,333 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.button;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the payment buttons created with given parameters, so that a page showing the same button over and over
+ * creates it only once.
+ *
+ * Buttons are keyed by a hash of their canonical creation request. A button is reused until it expires or, once the
+ * registry is full, until it is the least recently used one. Concurrent creations of the same button wait for a single
+ * request. Failed creations are not remembered.
+ *
+ * Hand one to {@link com.createtank.payments.coinbase.CoinbaseApi#setButtonRegistry(ButtonRegistry)} to use it for
+ * makeButton(...). A registry may be shared between api instances of the same account only.
+ */
+public class ButtonRegistry {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TTL_HOURS = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Creates a button on a miss
+     */
+    public interface Creator {
+        JsonObject create() throws IOException;
+    }
+
+    private static final class CachedButton {
+        final String button;
+        final long expiresAt;
+
+        CachedButton(String button, long expiresAt) {
+            this.button = button;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedButton> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<JsonObject>> creating =
+            new ConcurrentHashMap<String, CompletableFuture<JsonObject>>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder creations = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a registry holding up to {@link #DEFAULT_MAX_ENTRIES} buttons for {@link #DEFAULT_TTL_HOURS} hours
+     */
+    public ButtonRegistry() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_HOURS, TimeUnit.HOURS);
+    }
+
+    /**
+     * @param maxEntries the number of buttons above which the least recently used one is forgotten
+     * @param ttl how long a button is reused after its creation
+     */
+    public ButtonRegistry(final int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must be positive");
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, CachedButton>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedButton> eldest) {
+                if (size() <= ButtonRegistry.this.maxEntries)
+                    return false;
+
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param request the body of a button creation request
+     * @return the key of the button the request creates. Requests differing only in the order of their properties have
+     * the same key
+     */
+    public static String keyOf(JsonObject request) {
+        byte[] canonical = canonical(request).toString().getBytes(UTF_8);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static JsonElement canonical(JsonElement element) {
+        if (!element.isJsonObject())
+            return element;
+
+        TreeMap<String, JsonElement> sorted = new TreeMap<String, JsonElement>();
+        for (Map.Entry<String, JsonElement> property : element.getAsJsonObject().entrySet())
+            sorted.put(property.getKey(), canonical(property.getValue()));
+
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, JsonElement> property : sorted.entrySet())
+            json.add(property.getKey(), property.getValue());
+
+        return json;
+    }
+
+    /**
+     * Returns the button remembered for a key, or creates and remembers it. While a button is being created, other
+     * callers asking for it wait for that creation
+     * @param key the key of the button, see {@link #keyOf(JsonObject)}
+     * @param creator creates the button on a miss
+     * @return a copy of the button, or null if coinbase did not create it
+     * @throws IOException if the creation fails
+     */
+    public JsonObject get(String key, Creator creator) throws IOException {
+        JsonObject button = cached(key);
+        if (button != null)
+            return button;
+
+        CompletableFuture<JsonObject> created = new CompletableFuture<JsonObject>();
+        CompletableFuture<JsonObject> inFlight = creating.putIfAbsent(key, created);
+        if (inFlight != null) {
+            coalesced.increment();
+            return copy(await(inFlight));
+        }
+
+        try {
+            //a creation may have finished between the lookup and taking over the key
+            button = peek(key);
+            if (button == null) {
+                creations.increment();
+                button = creator.create();
+                remember(key, button);
+            }
+            created.complete(button);
+            return copy(button);
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            creating.remove(key, created);
+        }
+    }
+
+    /**
+     * Asynchronous form of {@link #get(String, Creator)}
+     * @param creator starts the creation of the button on a miss
+     */
+    public CompletableFuture<JsonObject> getAsync(String key, Supplier<CompletableFuture<JsonObject>> creator) {
+        JsonObject button = cached(key);
+        if (button != null)
+            return CompletableFuture.completedFuture(button);
+
+        CompletableFuture<JsonObject> created = new CompletableFuture<JsonObject>();
+        CompletableFuture<JsonObject> inFlight = creating.putIfAbsent(key, created);
+        if (inFlight != null) {
+            coalesced.increment();
+            return inFlight.thenApply(ButtonRegistry::copy);
+        }
+
+        button = peek(key);
+        if (button != null) {
+            creating.remove(key, created);
+            created.complete(button);
+            return created.thenApply(ButtonRegistry::copy);
+        }
+
+        creations.increment();
+        CompletableFuture<JsonObject> creation;
+        try {
+            creation = creator.get();
+        } catch (RuntimeException e) {
+            creation = new CompletableFuture<JsonObject>();
+            creation.completeExceptionally(e);
+        }
+
+        creation.whenComplete((result, error) -> {
+            if (error == null)
+                remember(key, result);
+            creating.remove(key, created);
+            if (error == null)
+                created.complete(result);
+            else
+                created.completeExceptionally(error);
+        });
+        return created.thenApply(ButtonRegistry::copy);
+    }
+
+    private JsonObject cached(String key) {
+        JsonObject button = peek(key);
+        if (button != null)
+            hits.increment();
+
+        return button;
+    }
+
+    private JsonObject peek(String key) {
+        String button;
+        synchronized (this) {
+            CachedButton entry = entries.get(key);
+            if (entry == null)
+                return null;
+
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            button = entry.button;
+        }
+
+        return new JsonParser().parse(button).getAsJsonObject();
+    }
+
+    private void remember(String key, JsonObject button) {
+        if (button == null)
+            return;
+
+        String json = button.toString();
+        synchronized (this) {
+            entries.put(key, new CachedButton(json, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    /**
+     * Hands every caller its own button, since a JsonObject is mutable
+     */
+    private static JsonObject copy(JsonObject button) {
+        return button != null ? new JsonParser().parse(button.toString()).getAsJsonObject() : null;
+    }
+
+    private static JsonObject await(CompletableFuture<JsonObject> creation) throws IOException {
+        try {
+            return creation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the button creation");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Forgets a button, so that the next request for it creates a new one
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of buttons reused without a request
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of buttons created
+     */
+    public long getCreationCount() {
+        return creations.sum();
+    }
+
+    /**
+     * @return the number of callers that waited for a creation started by another caller
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
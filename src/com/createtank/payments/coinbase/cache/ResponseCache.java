@@ -0,0 +1,321 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded read cache for api responses, keyed by logical endpoint. Every endpoint has its own time to live;
+ * once the cache is full the least recently used entry is evicted.
+ *
+ * Hand one to {@link com.createtank.payments.coinbase.CoinbaseApi#setResponseCache(ResponseCache)} to cache me(),
+ * getTransaction(id) and getAddresses(...). Writes made through that api invalidate the entries they affect, for
+ * example the user balance after sendMoney. The cache may be shared between api instances of the same account only.
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** Endpoint of me(). Holds the balance and limits, so it expires quickly */
+    public static final String USERS = "users";
+    /** Endpoint of getTransaction(id) */
+    public static final String TRANSACTION = "transactions/:id";
+    /** Endpoint of getAddresses(...) */
+    public static final String ADDRESSES = "addresses";
+
+    /**
+     * Loads a value on a cache miss
+     */
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Starts loading a value on a cache miss, without waiting for it
+     */
+    public interface AsyncLoader<T> {
+        CompletableFuture<T> load();
+    }
+
+    private static final class CacheEntry {
+        final String endpoint;
+        final Object value;
+        final long expiresAt;
+
+        CacheEntry(String endpoint, Object value, long expiresAt) {
+            this.endpoint = endpoint;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The loads of a key in flight, and the number of times the key was invalidated while they ran
+     */
+    private static final class Load {
+        int loaders;
+        long invalidations;
+    }
+
+    /**
+     * The outcome of looking a key up: the cached value on a hit, or what a miss needs to cache its load
+     */
+    private static final class Lookup {
+        final boolean hit;
+        final Object value;
+        final String endpoint;
+        final String key;
+        final long ttl;
+        final Load load;
+        final long invalidations;
+        final long endpointGeneration;
+        final long generation;
+
+        Lookup(Object value) {
+            this.hit = true;
+            this.value = value;
+            this.endpoint = null;
+            this.key = null;
+            this.ttl = 0;
+            this.load = null;
+            this.invalidations = 0;
+            this.endpointGeneration = 0;
+            this.generation = 0;
+        }
+
+        Lookup(String endpoint, String key, long ttl, Load load, long endpointGeneration, long generation) {
+            this.hit = false;
+            this.value = null;
+            this.endpoint = endpoint;
+            this.key = key;
+            this.ttl = ttl;
+            this.load = load;
+            this.invalidations = load.invalidations;
+            this.endpointGeneration = endpointGeneration;
+            this.generation = generation;
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, CacheEntry> entries;
+    private final Map<String, Long> ttls = new HashMap<String, Long>();
+    //bumped by the invalidations a load in flight may have missed, so that it does not cache a stale value
+    private final Map<String, Load> loads = new HashMap<String, Load>();
+    private final Map<String, Long> endpointGenerations = new HashMap<String, Long>();
+    private long generation;
+    private volatile long defaultTtlNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAX_ENTRIES} entries
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a cache with the default time to live per endpoint: 10 seconds for {@link #USERS}, 5 minutes for
+     * {@link #TRANSACTION} and 1 minute for {@link #ADDRESSES}
+     * @param maxEntries the number of entries above which the least recently used one is evicted
+     */
+    public ResponseCache(final int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() <= ResponseCache.this.maxEntries)
+                    return false;
+
+                evictions.increment();
+                return true;
+            }
+        };
+
+        setTtl(USERS, 10, TimeUnit.SECONDS);
+        setTtl(TRANSACTION, 5, TimeUnit.MINUTES);
+        setTtl(ADDRESSES, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Sets how long responses of an endpoint stay cached. A ttl of 0 disables caching for the endpoint
+     */
+    public synchronized void setTtl(String endpoint, long ttl, TimeUnit unit) {
+        ttls.put(endpoint, unit.toNanos(ttl));
+    }
+
+    /**
+     * Sets the time to live of endpoints without one of their own
+     */
+    public void setDefaultTtl(long ttl, TimeUnit unit) {
+        defaultTtlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the cached value for a key, or loads and caches it if it is missing or expired. Failed loads are not
+     * cached, and neither are loads the key was invalidated during
+     * @param endpoint the logical endpoint, which selects the time to live
+     * @param key the key of the response within the cache, unique across endpoints
+     * @param loader loads the value on a miss
+     * @return the cached or loaded value
+     * @throws IOException if the loader fails
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String endpoint, String key, Loader<T> loader) throws IOException {
+        Lookup lookup = lookup(endpoint, key);
+        if (lookup.hit)
+            return (T) lookup.value;
+
+        T value = null;
+        try {
+            value = loader.load();
+        } finally {
+            finishLoad(lookup, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the cached value for a key, or starts loading it if it is missing or expired and caches it once loaded,
+     * under the same rules as {@link #get(String, String, Loader)}
+     * @return a future completed with the cached or loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(String endpoint, String key, AsyncLoader<T> loader) {
+        final Lookup lookup = lookup(endpoint, key);
+        if (lookup.hit)
+            return CompletableFuture.completedFuture((T) lookup.value);
+
+        CompletableFuture<T> load;
+        try {
+            load = loader.load();
+        } catch (RuntimeException | Error e) {
+            finishLoad(lookup, null);
+            throw e;
+        }
+
+        return load.whenComplete((value, error) -> finishLoad(lookup, value));
+    }
+
+    /**
+     * Returns a hit, or registers a load of the key so that invalidations made while it runs are noticed
+     */
+    private synchronized Lookup lookup(String endpoint, String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt - System.nanoTime() > 0) {
+                hits.increment();
+                return new Lookup(entry.value);
+            }
+
+            entries.remove(key);
+        }
+
+        Load load = loads.get(key);
+        if (load == null) {
+            load = new Load();
+            loads.put(key, load);
+        }
+        load.loaders++;
+        misses.increment();
+
+        return new Lookup(endpoint, key, ttlOf(endpoint), load, endpointGenerationOf(endpoint), generation);
+    }
+
+    /**
+     * Caches a loaded value, unless the load failed or the key was invalidated while it ran
+     */
+    private synchronized void finishLoad(Lookup lookup, Object value) {
+        boolean current = lookup.load.invalidations == lookup.invalidations && generation == lookup.generation
+                && endpointGenerationOf(lookup.endpoint) == lookup.endpointGeneration;
+        if (value != null && lookup.ttl > 0 && current)
+            entries.put(lookup.key, new CacheEntry(lookup.endpoint, value, System.nanoTime() + lookup.ttl));
+
+        if (--lookup.load.loaders == 0)
+            loads.remove(lookup.key);
+    }
+
+    private long endpointGenerationOf(String endpoint) {
+        Long endpointGeneration = endpointGenerations.get(endpoint);
+        return endpointGeneration != null ? endpointGeneration : 0;
+    }
+
+    private long ttlOf(String endpoint) {
+        Long ttl = ttls.get(endpoint);
+        return ttl != null ? ttl : defaultTtlNanos;
+    }
+
+    /**
+     * Drops a single entry
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+        Load load = loads.get(key);
+        if (load != null)
+            load.invalidations++;
+    }
+
+    /**
+     * Drops every entry of an endpoint
+     */
+    public synchronized void invalidateEndpoint(String endpoint) {
+        endpointGenerations.put(endpoint, endpointGenerationOf(endpoint) + 1);
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().endpoint.equals(endpoint))
+                it.remove();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
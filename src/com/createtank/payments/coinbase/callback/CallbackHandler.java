@@ -0,0 +1,49 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.callback;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles the notifications coinbase posts to one callback path. Handlers run on the server's worker threads, so
+ * they may block, but every handler busy means new callbacks are turned away until one frees up.
+ */
+public interface CallbackHandler {
+
+    /**
+     * @throws Exception to answer the callback with an error, so that coinbase sends it again later
+     */
+    void onCallback(CallbackNotification notification) throws Exception;
+
+    /**
+     * Handles the callback without holding the server's worker until it is done. The server answers once the returned
+     * future completes, with an error if it completed exceptionally. By default the callback is handled by
+     * {@link #onCallback} on the worker itself
+     */
+    default CompletableFuture<Void> onCallbackAsync(CallbackNotification notification) {
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        try {
+            onCallback(notification);
+            done.complete(null);
+        } catch (Exception e) {
+            done.completeExceptionally(e);
+        }
+
+        return done;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.callback;
+
+import com.createtank.payments.coinbase.models.Amount;
+import com.createtank.payments.coinbase.models.JsonStreams;
+import com.createtank.payments.coinbase.models.Order;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * A payment notification coinbase posted to a callback url: either a payment received on an address created with a
+ * callback_url, or a change to an order paid through a button created with one
+ */
+public class CallbackNotification {
+
+    public static enum Kind {
+        /** A payment to an address, see {@link #getAddress()} and {@link #getAmount()} */
+        ADDRESS,
+        /** A change to an order, see {@link #getOrder()} */
+        ORDER,
+        /** A payload of neither form, see {@link #getBody()} */
+        UNKNOWN
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String path;
+    private final String query;
+    private final byte[] body;
+    private String address;
+    private Amount amount;
+    private String transactionId;
+    private String transactionHash;
+    private Order order;
+
+    private CallbackNotification(String path, String query, byte[] body) {
+        this.path = path;
+        this.query = query;
+        this.body = body;
+    }
+
+    //region accessors
+    public Kind getKind() {
+        if (order != null)
+            return Kind.ORDER;
+
+        return address != null ? Kind.ADDRESS : Kind.UNKNOWN;
+    }
+
+    /**
+     * @return the path the notification was posted to
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the query string of the callback url, without the '?', or null. Useful for a secret added to the url
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the address paid to, for address notifications
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the amount paid, in BTC, for address notifications
+     */
+    public Amount getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return the id of the coinbase transaction the notification is about, or null if it does not say
+     */
+    public String getTransactionId() {
+        return transactionId != null ? transactionId : order != null ? order.getTransactionId() : null;
+    }
+
+    /**
+     * @return the bitcoin hash of the transaction the notification is about, or null if it does not say
+     */
+    public String getTransactionHash() {
+        return transactionHash != null ? transactionHash : order != null ? order.getTransactionHash() : null;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the raw payload
+     */
+    public byte[] getBody() {
+        return body.clone();
+    }
+    //endregion
+
+    /**
+     * Parses a payload posted to a callback url
+     * @throws IOException if the payload is not a json object
+     */
+    public static CallbackNotification parse(String path, String query, byte[] body) throws IOException {
+        CallbackNotification notification = new CallbackNotification(path, query, body);
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("order")) {
+                    notification.order = Order.fromJson(reader);
+                } else if (name.equals("address")) {
+                    notification.address = JsonStreams.nextStringOrNull(reader);
+                } else if (name.equals("amount")) {
+                    //address callbacks send the amount as a bare number of BTC
+                    notification.amount = new Amount();
+                    notification.amount.setAmount(JsonStreams.nextStringOrNull(reader));
+                    notification.amount.setCurrency("BTC");
+                } else if (name.equals("transaction") && !JsonStreams.skipNull(reader)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (field.equals("id"))
+                            notification.transactionId = JsonStreams.nextStringOrNull(reader);
+                        else if (field.equals("hash"))
+                            notification.transactionHash = JsonStreams.nextStringOrNull(reader);
+                        else
+                            reader.skipValue();
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed callback payload", e);
+        }
+
+        return notification;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.callback;
+
+import com.createtank.payments.coinbase.models.Order;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A processing stage between a {@link CallbackServer} and a handler, which hands the handler every callback about
+ * the same order or transaction one at a time, in the order they arrived, and drops the ones it has already handled.
+ *
+ * Callbacks are partitioned by the order id, or failing that the transaction id, hash or address they are about.
+ * Each partition has a queue and a thread of its own, so callbacks about one key never run concurrently or overtake
+ * each other, while those about different keys run in parallel. Each partition also remembers the events it handled
+ * most recently, an order reaching a status or a payment to an address, and skips a callback repeating one. Only
+ * handled events are remembered, so a callback whose handler failed is handled again when coinbase retries it. It
+ * likewise remembers how far each order has got, and skips a callback taking an order back from a final status such
+ * as "completed" to "new" or "pending", which happens when coinbase retries an earlier callback that failed.
+ *
+ * The pipeline is itself a handler. A {@link CallbackServer} answers each callback with the handler's outcome once its
+ * partition has handled it, but its worker is free as soon as the callback is queued, so a burst about one order
+ * cannot take every worker and hold up the callbacks about others. A full partition queue refuses callbacks, which
+ * the server answers with an error that coinbase retries.
+ */
+public class CallbackPipeline implements CallbackHandler, Closeable {
+
+    public static final int DEFAULT_PARTITIONS = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_SEEN_CAPACITY = 10000;
+
+    private final CallbackHandler handler;
+    private final Partition[] partitions;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Starts a pipeline of {@link #DEFAULT_PARTITIONS} partitions, each queueing up to
+     * {@link #DEFAULT_QUEUE_CAPACITY} callbacks, remembering {@link #DEFAULT_SEEN_CAPACITY} events in all
+     */
+    public CallbackPipeline(CallbackHandler handler) {
+        this(handler, DEFAULT_PARTITIONS, DEFAULT_QUEUE_CAPACITY, DEFAULT_SEEN_CAPACITY);
+    }
+
+    /**
+     * @param partitions the number of keys handled in parallel
+     * @param queueCapacity the number of callbacks each partition queues before refusing more
+     * @param seenCapacity the number of handled events remembered across all partitions
+     */
+    public CallbackPipeline(CallbackHandler handler, int partitions, int queueCapacity, int seenCapacity) {
+        if (partitions < 1 || queueCapacity < 1 || seenCapacity < partitions)
+            throw new IllegalArgumentException("partitions and queue capacity must be positive, and seen capacity "
+                    + "at least the number of partitions");
+
+        this.handler = handler;
+        this.partitions = new Partition[partitions];
+        for (int i = 0; i < partitions; ++i) {
+            this.partitions[i] = new Partition(queueCapacity, seenCapacity / partitions);
+            Thread thread = new Thread(this.partitions[i], "coinbase-callback-partition-" + i);
+            thread.setDaemon(true);
+            this.partitions[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues the callback on its partition and waits for it to be handled
+     * @throws RejectedExecutionException if the partition queue is full or the pipeline is closed
+     * @throws Exception whatever the handler threw
+     */
+    @Override
+    public void onCallback(CallbackNotification notification) throws Exception {
+        CompletableFuture<Void> done = onCallbackAsync(notification);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for callback to be handled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Queues the callback on its partition without waiting for it
+     * @return a future completed once the callback is handled, exceptionally with whatever the handler threw
+     * @throws RejectedExecutionException if the partition queue is full or the pipeline is closed
+     */
+    @Override
+    public CompletableFuture<Void> onCallbackAsync(CallbackNotification notification) {
+        if (closed)
+            throw new RejectedExecutionException("Callback pipeline closed");
+
+        String key = keyOf(notification);
+        Partition partition = partitions[(key.hashCode() & Integer.MAX_VALUE) % partitions.length];
+        Task task = new Task(notification, key, eventOf(notification, key));
+        if (!partition.queue.offer(task))
+            throw new RejectedExecutionException("Callback partition queue full");
+        //the pipeline may have closed after the check above, and the partition drained its queue before the offer
+        if (closed && partition.queue.remove(task))
+            throw new RejectedExecutionException("Callback pipeline closed");
+
+        return task.done;
+    }
+
+    //region metrics
+    /**
+     * @return the number of callbacks waiting in all partitions, not counting the ones being handled
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Partition partition : partitions)
+            depth += partition.queue.size();
+
+        return depth;
+    }
+
+    /**
+     * @return the number of callbacks waiting in each partition. A partition much deeper than the others has a hot
+     * key
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[partitions.length];
+        for (int i = 0; i < partitions.length; ++i)
+            depths[i] = partitions[i].queue.size();
+
+        return depths;
+    }
+
+    /**
+     * @return how long the oldest callback not yet handled has been in the pipeline, in milliseconds, or 0 if there
+     * is none
+     */
+    public long getLagMillis() {
+        long now = System.nanoTime();
+        long lag = 0;
+        for (Partition partition : partitions) {
+            Task oldest = partition.current;
+            if (oldest == null)
+                oldest = partition.queue.peek();
+            if (oldest != null)
+                lag = Math.max(lag, now - oldest.enqueuedNanos);
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    /**
+     * @return the number of callbacks handled successfully
+     */
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    /**
+     * @return the number of callbacks dropped as repeats of events already handled
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return the number of callbacks dropped for reporting an order status older than one already handled
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    /**
+     * @return the number of callbacks whose handler threw
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+    //endregion
+
+    /**
+     * Stops the partitions. Callbacks still queued are refused
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Partition partition : partitions)
+            partition.thread.interrupt();
+    }
+
+    /**
+     * @return the order id, transaction id, transaction hash or address the callback is about, whichever comes first
+     */
+    static String keyOf(CallbackNotification notification) {
+        Order order = notification.getOrder();
+        if (order != null && order.getId() != null)
+            return "order:" + order.getId();
+        if (notification.getTransactionId() != null)
+            return "transaction:" + notification.getTransactionId();
+        if (notification.getTransactionHash() != null)
+            return "hash:" + notification.getTransactionHash();
+
+        return notification.getAddress() != null ? "address:" + notification.getAddress() : "";
+    }
+
+    /**
+     * @return what the callback reports, such that a retry of the same callback reports the same event
+     */
+    static String eventOf(CallbackNotification notification, String key) {
+        Order order = notification.getOrder();
+        if (order != null)
+            return key + ":" + order.getStatus();
+        if (notification.getAddress() != null && notification.getTransactionHash() != null)
+            return key + ":" + notification.getAddress() + ":" + notification.getTransactionHash();
+
+        //a payload of unknown form is only a repeat if it is identical
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(notification.getBody());
+            StringBuilder hex = new StringBuilder(key).append(":");
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return how far an order with the given status has got: 0 while it may still be paid, 1 once it is final, or
+     * -1 if the callback is not about an order status
+     */
+    static int progressOf(CallbackNotification notification) {
+        Order order = notification.getOrder();
+        if (order == null || order.getId() == null || order.getStatus() == null)
+            return -1;
+
+        String status = order.getStatus();
+        return status.equals("new") || status.equals("pending") ? 0 : 1;
+    }
+
+    private static final class Task {
+        final CallbackNotification notification;
+        final String key;
+        final String event;
+        final int progress;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        Task(CallbackNotification notification, String key, String event) {
+            this.notification = notification;
+            this.key = key;
+            this.event = event;
+            this.progress = progressOf(notification);
+        }
+    }
+
+    private final class Partition implements Runnable {
+        final BlockingQueue<Task> queue;
+        final Map<String, Boolean> seen;
+        final Map<String, Integer> progress;
+        Thread thread;
+        volatile Task current;
+
+        Partition(int queueCapacity, final int seenCapacity) {
+            this.queue = new ArrayBlockingQueue<Task>(queueCapacity);
+            this.seen = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > seenCapacity;
+                }
+            };
+            this.progress = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > seenCapacity;
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    Task task = queue.take();
+                    current = task;
+                    handle(task);
+                    current = null;
+                }
+            } catch (InterruptedException e) {
+                //closed
+            } finally {
+                Task task;
+                while ((task = queue.poll()) != null)
+                    task.done.completeExceptionally(new RejectedExecutionException("Callback pipeline closed"));
+            }
+        }
+
+        private void handle(Task task) {
+            if (seen.get(task.event) != null) {
+                duplicates.increment();
+                task.done.complete(null);
+                return;
+            }
+
+            Integer reached = task.progress < 0 ? null : progress.get(task.key);
+            if (reached != null && task.progress < reached) {
+                stale.increment();
+                task.done.complete(null);
+                return;
+            }
+
+            try {
+                handler.onCallback(task.notification);
+                seen.put(task.event, Boolean.TRUE);
+                if (task.progress >= 0 && (reached == null || task.progress > reached))
+                    progress.put(task.key, task.progress);
+                processed.increment();
+                task.done.complete(null);
+            } catch (Throwable e) {
+                failed.increment();
+                task.done.completeExceptionally(e);
+            }
+        }
+    }
+}
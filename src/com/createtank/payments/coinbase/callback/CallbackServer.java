@@ -0,0 +1,577 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.callback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An embedded HTTP server receiving the notifications coinbase posts to the callback_url of addresses and buttons,
+ * with no servlet container needed.
+ *
+ * A single thread accepts connections and reads and writes them without blocking. Each complete request is parsed and
+ * handed to the handler registered for its path on a bounded pool of workers; the response is sent once the handler
+ * is done, 200 if it succeeded and 500 if it failed, so that coinbase retries failed callbacks. A handler such as
+ * {@link CallbackPipeline} that finishes asynchronously frees its worker straight away. While a request is
+ * being handled its connection is not read, and when every worker is busy and the queue is full, new callbacks are
+ * answered 503 straight away instead of piling up, which coinbase also retries.
+ *
+ * Only what coinbase sends is supported: POST requests with a Content-Length, over keep-alive or not. TLS is left to a
+ * proxy in front of the server.
+ */
+public class CallbackServer implements Closeable {
+
+    public static final int DEFAULT_WORKERS = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024;
+
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Map<Integer, String> REASONS = new HashMap<Integer, String>();
+
+    static {
+        REASONS.put(200, "OK");
+        REASONS.put(400, "Bad Request");
+        REASONS.put(404, "Not Found");
+        REASONS.put(405, "Method Not Allowed");
+        REASONS.put(411, "Length Required");
+        REASONS.put(413, "Payload Too Large");
+        REASONS.put(431, "Request Header Fields Too Large");
+        REASONS.put(500, "Internal Server Error");
+        REASONS.put(503, "Service Unavailable");
+    }
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ThreadPoolExecutor workers;
+    private final int maxBodyBytes;
+    private final Map<String, CallbackHandler> handlers = new ConcurrentHashMap<String, CallbackHandler>();
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread selectorThread;
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Binds a server with {@link #DEFAULT_WORKERS} workers, a queue of {@link #DEFAULT_QUEUE_CAPACITY} callbacks and
+     * bodies of up to {@link #DEFAULT_MAX_BODY_BYTES}. Call {@link #start()} once the handlers are added
+     * @param address the address to listen on; port 0 picks a free port
+     */
+    public CallbackServer(InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    /**
+     * @param workers the number of handlers that may run at once
+     * @param queueCapacity the number of callbacks that may wait for a worker before new ones are refused
+     * @param maxBodyBytes the largest payload accepted
+     */
+    public CallbackServer(InetSocketAddress address, int workers, int queueCapacity, int maxBodyBytes)
+            throws IOException {
+        if (workers < 1 || queueCapacity < 1 || maxBodyBytes < 1)
+            throw new IllegalArgumentException("workers, queue capacity and body size must be positive");
+
+        this.maxBodyBytes = maxBodyBytes;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(address, 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "coinbase-callback-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+
+        selectorThread = new Thread(this::run, "coinbase-callback-server");
+        selectorThread.setDaemon(true);
+    }
+
+    /**
+     * Registers the handler of a callback path, such as "/coinbase/orders". Only the path of the callback url is
+     * matched; its query string is passed on to the handler
+     */
+    public void addHandler(String path, CallbackHandler handler) {
+        handlers.put(path, handler);
+    }
+
+    public void removeHandler(String path) {
+        handlers.remove(path);
+    }
+
+    /**
+     * Starts accepting callbacks
+     */
+    public void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of callbacks handled successfully
+     */
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    /**
+     * @return the number of callbacks whose handler threw or whose payload could not be parsed
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of callbacks refused because every worker was busy and the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of callbacks waiting for a worker
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Stops accepting callbacks and closes every connection. Handlers already running finish, but their responses
+     * are not sent
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        workers.shutdown();
+        if (selectorThread.isAlive()) {
+            selector.wakeup();
+            try {
+                selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            server.close();
+            selector.close();
+        }
+    }
+
+    //region selector thread
+    private void run() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (!closed) {
+                selector.select(1000);
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= 1000) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException e) {
+            //the selector itself failed; nothing more can be served
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    ((Connection) key.attachment()).close();
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                //closing anyway
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid())
+                return;
+
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    //the client gave up, or we are out of file descriptors; the next accept tries again
+                }
+                return;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable())
+                    connection.read();
+                if (key.isValid() && key.isWritable() && connection.flush()) {
+                    connection.finishResponse();
+                    connection.process();
+                }
+            } catch (IOException e) {
+                connection.close();
+            }
+        } catch (CancelledKeyException e) {
+            //closed while its events were pending
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+                Connection connection = (Connection) attachment;
+                if (!connection.busy && now - connection.lastActive > IDLE_TIMEOUT_MILLIS)
+                    connection.close();
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the selector thread, which owns every connection
+     */
+    private void onSelectorThread(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+    //endregion
+
+    /**
+     * The state of one client connection, only ever touched by the selector thread
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        ByteBuffer out;
+        boolean busy;
+        boolean closeAfterResponse;
+        long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (!in.hasRemaining())
+                grow(in.capacity() * 2);
+
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+
+            lastActive = System.currentTimeMillis();
+            process();
+        }
+
+        void grow(int capacity) {
+            ByteBuffer grown = ByteBuffer.wrap(Arrays.copyOf(in.array(), capacity));
+            grown.position(in.position());
+            in = grown;
+        }
+
+        /**
+         * Handles the requests buffered so far, one at a time
+         */
+        void process() {
+            while (!busy && key.isValid() && parseRequest())
+                ;
+        }
+
+        /**
+         * @return whether a complete request was taken from the buffer
+         */
+        boolean parseRequest() {
+            byte[] data = in.array();
+            int length = in.position();
+            int headerEnd = indexOfHeaderEnd(data, Math.min(length, MAX_HEADER_BYTES));
+            if (headerEnd < 0) {
+                if (length >= MAX_HEADER_BYTES)
+                    respond(431, false);
+                return false;
+            }
+
+            String[] lines = new String(data, 0, headerEnd, ASCII).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                respond(400, false);
+                return false;
+            }
+
+            Map<String, String> headers = new HashMap<String, String>();
+            for (int i = 1; i < lines.length; ++i) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0)
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+            }
+
+            if (headers.containsKey("transfer-encoding")) {
+                respond(411, false);
+                return false;
+            }
+
+            int contentLength;
+            try {
+                contentLength = headers.containsKey("content-length")
+                        ? Integer.parseInt(headers.get("content-length")) : 0;
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+            if (contentLength < 0 || contentLength > maxBodyBytes) {
+                respond(contentLength < 0 ? 400 : 413, false);
+                return false;
+            }
+
+            int bodyStart = headerEnd + 4;
+            int requestEnd = bodyStart + contentLength;
+            if (length < requestEnd) {
+                if (in.capacity() < requestEnd)
+                    grow(requestEnd);
+                return false;
+            }
+
+            byte[] body = Arrays.copyOfRange(data, bodyStart, requestEnd);
+            System.arraycopy(data, requestEnd, data, 0, length - requestEnd);
+            in.position(length - requestEnd);
+
+            String connectionHeader = headers.get("connection");
+            boolean keepAlive = requestLine[2].equals("HTTP/1.1") ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+            dispatch(requestLine[0], requestLine[1], body, keepAlive);
+            return true;
+        }
+
+        void dispatch(String method, String target, final byte[] body, final boolean keepAlive) {
+            int queryStart = target.indexOf('?');
+            final String path = queryStart >= 0 ? target.substring(0, queryStart) : target;
+            final String query = queryStart >= 0 ? target.substring(queryStart + 1) : null;
+            final CallbackHandler handler = handlers.get(path);
+            if (handler == null) {
+                respond(404, keepAlive);
+                return;
+            }
+            if (!method.equals("POST")) {
+                respond(405, keepAlive);
+                return;
+            }
+
+            busy = true;
+            key.interestOps(0);
+            try {
+                workers.execute(() -> {
+                    CompletableFuture<Integer> status;
+                    try {
+                        status = handle(handler, path, query, body);
+                    } catch (Throwable e) {
+                        //whatever happened, answer so the connection does not stay busy
+                        failed.increment();
+                        answer(500, keepAlive);
+                        throw e;
+                    }
+                    status.thenAccept(response -> answer(response, keepAlive));
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                busy = false;
+                respond(503, keepAlive);
+            }
+        }
+
+        /**
+         * Sends the response to a dispatched request from any thread, and goes on with the next request
+         */
+        void answer(int status, boolean keepAlive) {
+            onSelectorThread(() -> {
+                if (!key.isValid())
+                    return;
+
+                busy = false;
+                respond(status, keepAlive);
+                process();
+            });
+        }
+
+        /**
+         * Starts sending a response; the connection takes no further request until it is sent
+         */
+        void respond(int status, boolean keepAlive) {
+            StringBuilder response = new StringBuilder(128);
+            response.append("HTTP/1.1 ").append(status).append(' ').append(REASONS.get(status)).append("\r\n");
+            response.append("Content-Length: 0\r\n");
+            if (status == 503)
+                response.append("Retry-After: 1\r\n");
+            response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+            out = ByteBuffer.wrap(response.toString().getBytes(ASCII));
+            closeAfterResponse = !keepAlive;
+            busy = true;
+            try {
+                if (flush())
+                    finishResponse();
+                else
+                    key.interestOps(SelectionKey.OP_WRITE);
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        /**
+         * @return whether the response was written completely
+         */
+        boolean flush() throws IOException {
+            channel.write(out);
+            lastActive = System.currentTimeMillis();
+            return !out.hasRemaining();
+        }
+
+        void finishResponse() {
+            out = null;
+            if (closeAfterResponse) {
+                close();
+                return;
+            }
+
+            busy = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            busy = false;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //already unusable
+            }
+        }
+    }
+
+    /**
+     * Parses one callback and hands it to its handler on a worker thread
+     * @return the status to answer with, once the handler is done
+     */
+    private CompletableFuture<Integer> handle(CallbackHandler handler, String path, String query, byte[] body) {
+        CallbackNotification notification;
+        try {
+            notification = CallbackNotification.parse(path, query, body);
+        } catch (IOException e) {
+            failed.increment();
+            return CompletableFuture.completedFuture(400);
+        }
+
+        CompletableFuture<Void> done;
+        try {
+            done = handler.onCallbackAsync(notification);
+        } catch (Exception e) {
+            failed.increment();
+            return CompletableFuture.completedFuture(500);
+        }
+
+        return done.handle((result, error) -> {
+            if (error != null) {
+                failed.increment();
+                return 500;
+            }
+
+            handled.increment();
+            return 200;
+        });
+    }
+
+    /**
+     * @return the offset of the blank line ending the headers, or -1 if it is not within the first {@code limit} bytes
+     */
+    private static int indexOfHeaderEnd(byte[] data, int limit) {
+        for (int i = 0; i + 3 < limit; ++i) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n')
+                return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.circuit;
+
+import com.createtank.payments.coinbase.exceptions.CircuitOpenException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops sending requests to an endpoint while coinbase is failing on it, so that callers fail fast with a
+ * {@link CircuitOpenException} instead of each blocking until its socket gives up.
+ *
+ * Every endpoint, such as "buys" or "transactions/send_money", has its own circuit tracking the outcome of its last
+ * calls in a sliding window. A call fails when it gets no response or a 5xx, and is slow when its response takes
+ * longer than a threshold. Once the window holds enough calls and either the failure rate or the slow call rate
+ * reaches its threshold the circuit opens. After a while it lets a few probes through (half-open): if all of them
+ * succeed the circuit closes again, otherwise it reopens.
+ *
+ * State changes are reported to {@link Listener}s and can be read with {@link #getState(String)}.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final int DEFAULT_FAILURE_RATE = 50;
+    public static final int DEFAULT_SLOW_CALL_RATE = 80;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 5000;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    public static enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Notified of every state change of a circuit, on the thread whose call caused it
+     */
+    public interface Listener {
+        public void onStateChange(String endpoint, State from, State to);
+    }
+
+    /**
+     * Handed out by {@link #acquire(String)}; exactly one of its methods must be called once the call is done
+     */
+    public interface Permit {
+        /**
+         * Reports a response
+         * @param statusCode the HTTP status of the response
+         * @param latencyNanos the time from sending the request until the response arrived
+         */
+        public void complete(int statusCode, long latencyNanos);
+
+        /**
+         * Reports a call that failed without a response
+         */
+        public void fail();
+
+        /**
+         * Releases the permit of a call that was given up by the client, which says nothing about the endpoint
+         */
+        public void abandon();
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRate;
+    private final int slowCallRate;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a breaker opening at a 50% failure rate or 80% slow call rate over the last 20 calls, with calls slower
+     * than 5 seconds counted as slow, probing 3 calls 30 seconds after opening
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE, DEFAULT_SLOW_CALL_RATE,
+                DEFAULT_SLOW_CALL_MILLIS, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    /**
+     * @param windowSize the number of recent calls rates are computed over
+     * @param minimumCalls the number of calls the window must hold before the circuit can open
+     * @param failureRate the percentage of failed calls that opens the circuit
+     * @param slowCallRate the percentage of slow calls that opens the circuit
+     * @param slowCallMillis the latency above which a call is slow
+     * @param openMillis how long an open circuit rejects calls before probing
+     * @param halfOpenProbes the number of probes that must succeed to close the circuit
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, int failureRate, int slowCallRate, long slowCallMillis,
+                          long openMillis, int halfOpenProbes) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize)
+            throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize");
+        if (halfOpenProbes < 1)
+            throw new IllegalArgumentException("halfOpenProbes must be at least 1");
+
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Asks to make a call to an endpoint
+     * @param endpoint the logical endpoint, such as "transactions/:id"
+     * @return the permit to complete once the outcome of the call is known
+     * @throws CircuitOpenException if the circuit is open, or half-open with all its probes running
+     */
+    public Permit acquire(String endpoint) throws CircuitOpenException {
+        return circuit(endpoint).acquire();
+    }
+
+    /**
+     * @return the state of an endpoint's circuit; CLOSED if it has not been called
+     */
+    public State getState(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit != null ? circuit.getState() : State.CLOSED;
+    }
+
+    /**
+     * @return the state of every circuit that has been called, keyed by endpoint
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<String, State>();
+        for (Map.Entry<String, Circuit> entry : circuits.entrySet())
+            states.put(entry.getKey(), entry.getValue().getState());
+
+        return states;
+    }
+
+    /**
+     * @return the number of calls rejected without being sent
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Closes every circuit and forgets the calls seen so far
+     */
+    public void reset() {
+        for (Circuit circuit : circuits.values())
+            circuit.reset();
+    }
+
+    private Circuit circuit(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            Circuit created = new Circuit(endpoint);
+            circuit = circuits.putIfAbsent(endpoint, created);
+            if (circuit == null)
+                circuit = created;
+        }
+
+        return circuit;
+    }
+
+    private void fireStateChange(String endpoint, State from, State to) {
+        if (from == to)
+            return;
+
+        for (Listener listener : listeners)
+            listener.onStateChange(endpoint, from, to);
+    }
+
+    /**
+     * The state of one endpoint. Every state change starts a new generation, and outcomes of calls permitted in an
+     * earlier generation are ignored, so that a slow call from before the circuit opened cannot close it
+     */
+    private final class Circuit {
+
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final String endpoint;
+        private final byte[] window = new byte[windowSize];
+        private int calls;
+        private int next;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        private int generation;
+        private long openedAt;
+        private int probesRunning;
+        private int probesSucceeded;
+
+        Circuit(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        Permit acquire() throws CircuitOpenException {
+            State from;
+            State to;
+            int permitted;
+            synchronized (this) {
+                from = state;
+                if (state == State.OPEN) {
+                    long remaining = openNanos - (System.nanoTime() - openedAt);
+                    if (remaining > 0) {
+                        rejected.increment();
+                        throw new CircuitOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                    }
+
+                    transition(State.HALF_OPEN);
+                }
+
+                if (state == State.HALF_OPEN) {
+                    if (probesRunning + probesSucceeded >= halfOpenProbes) {
+                        rejected.increment();
+                        throw new CircuitOpenException(endpoint, 0);
+                    }
+
+                    probesRunning++;
+                }
+
+                permitted = generation;
+                to = state;
+            }
+
+            fireStateChange(endpoint, from, to);
+            return new CircuitPermit(this, permitted);
+        }
+
+        void record(int permitted, byte outcome) {
+            State from;
+            State to;
+            synchronized (this) {
+                if (permitted != generation)
+                    return;
+
+                from = state;
+                if (state == State.HALF_OPEN) {
+                    probesRunning--;
+                    if (outcome != 0) {
+                        open();
+                    } else if (++probesSucceeded >= halfOpenProbes) {
+                        transition(State.CLOSED);
+                    }
+                } else {
+                    add(outcome);
+                    if (calls >= minimumCalls && (failures * 100 >= failureRate * calls
+                            || slowCalls * 100 >= slowCallRate * calls)) {
+                        open();
+                    }
+                }
+
+                to = state;
+            }
+
+            fireStateChange(endpoint, from, to);
+        }
+
+        synchronized void release(int permitted) {
+            if (permitted == generation && state == State.HALF_OPEN)
+                probesRunning--;
+        }
+
+        void reset() {
+            State from;
+            synchronized (this) {
+                from = state;
+                transition(State.CLOSED);
+            }
+
+            fireStateChange(endpoint, from, State.CLOSED);
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        private void add(byte outcome) {
+            if (calls == windowSize) {
+                byte evicted = window[next];
+                if ((evicted & FAILED) != 0)
+                    failures--;
+                if ((evicted & SLOW) != 0)
+                    slowCalls--;
+            } else {
+                calls++;
+            }
+
+            window[next] = outcome;
+            next = (next + 1) % windowSize;
+            if ((outcome & FAILED) != 0)
+                failures++;
+            if ((outcome & SLOW) != 0)
+                slowCalls++;
+        }
+
+        private void open() {
+            transition(State.OPEN);
+            openedAt = System.nanoTime();
+        }
+
+        /**
+         * Starts a new generation in the given state with an empty window
+         */
+        private void transition(State to) {
+            state = to;
+            generation++;
+            calls = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+            probesRunning = 0;
+            probesSucceeded = 0;
+        }
+    }
+
+    private final class CircuitPermit implements Permit {
+        private final Circuit circuit;
+        private final int generation;
+
+        CircuitPermit(Circuit circuit, int generation) {
+            this.circuit = circuit;
+            this.generation = generation;
+        }
+
+        @Override
+        public void complete(int statusCode, long latencyNanos) {
+            byte outcome = 0;
+            if (statusCode >= 500)
+                outcome |= Circuit.FAILED;
+            if (latencyNanos > slowCallNanos)
+                outcome |= Circuit.SLOW;
+
+            circuit.record(generation, outcome);
+        }
+
+        @Override
+        public void fail() {
+            circuit.record(generation, Circuit.FAILED);
+        }
+
+        @Override
+        public void abandon() {
+            circuit.release(generation);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown without sending a request when the circuit of its endpoint is open because coinbase has recently been
+ * failing or answering slowly on it
+ */
+public class CircuitOpenException extends IOException {
+    private final String endpoint;
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String endpoint, long retryAfterMillis) {
+        super("Circuit open for endpoint " + endpoint
+                + (retryAfterMillis > 0 ? ", probing again in " + retryAfterMillis + "ms" : ""));
+        this.endpoint = endpoint;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return how long until requests to the endpoint are let through again as probes, or 0 if probes are running now
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown without sending a request when the connection pool it would have been sent through has been closed. Use
+ * another pool, or {@link com.createtank.payments.coinbase.HttpConnectionPool#getShared()} again once the shared pool
+ * has been closed
+ */
+public class ConnectionPoolClosedException extends IOException {
+
+    public ConnectionPoolClosedException() {
+        super("Connection pool has been closed");
+    }
+}
@@ -0,0 +1,56 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when coinbase answers a request with an unexpected HTTP status
+ */
+public class HttpResponseException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public HttpResponseException(String message, int statusCode) {
+        this(message, statusCode, 0);
+    }
+
+    public HttpResponseException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return whether coinbase refused the request with a client error, so that it had no effect. Timeouts and rate
+     * limiting are not refusals
+     */
+    public boolean isRejection() {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    /**
+     * @return how long the server asked clients to wait before retrying, or 0 if it did not say
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.exceptions;
+
+/**
+ * Thrown when coinbase rejects a request with 429 Too Many Requests
+ */
+public class RateLimitExceededException extends HttpResponseException {
+
+    public RateLimitExceededException(String method, long retryAfterMillis) {
+        super("Rate limit exceeded for request " + method
+                + (retryAfterMillis > 0 ? ", retry after " + retryAfterMillis + "ms" : ""), 429, retryAfterMillis);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.hedge;
+
+import com.createtank.payments.coinbase.retry.RetryBudget;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a slow read is hedged: sent a second time on another connection while the first attempt is still
+ * running, keeping whichever response arrives first and aborting the other.
+ *
+ * Only GETs of the configured endpoints are hedged, by default me() and getTransaction(id). A request is hedged once
+ * it has taken longer than a percentile of the recent latency of its endpoint, by default the 95th, and never sooner
+ * than a minimum delay. Hedges are drawn from a {@link RetryBudget} that only requests refill, so that at most a fixed
+ * fraction of extra requests is sent, 5% by default, however slow coinbase gets.
+ */
+public class HedgePolicy {
+
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 10;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+
+    /**
+     * The endpoints hedged by default, as reported to {@link com.createtank.payments.coinbase.metrics.ClientMetrics}
+     */
+    public static final Set<String> DEFAULT_ENDPOINTS =
+            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("users", "transactions/:id")));
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final RetryBudget budget;
+    private final Set<String> endpoints;
+    private final ConcurrentMap<String, RecentLatency> latencies = new ConcurrentHashMap<String, RecentLatency>();
+
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    /**
+     * Creates a policy hedging me() and getTransaction(id) at the 95th percentile, after at least 10 milliseconds,
+     * with at most 5% extra requests
+     */
+    public HedgePolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_BUDGET_RATIO, DEFAULT_ENDPOINTS);
+    }
+
+    /**
+     * @param percentile the percentile of recent latency after which a request is hedged, between 0 and 100
+     * @param minDelayMillis the shortest time to wait before hedging
+     * @param budgetRatio the largest fraction of extra requests hedging may send
+     * @param endpoints the endpoints to hedge, such as "transactions/:id"
+     */
+    public HedgePolicy(double percentile, long minDelayMillis, double budgetRatio, Set<String> endpoints) {
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be greater than 0 and at most 100");
+
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.budget = new RetryBudget(budgetRatio, 0);
+        this.endpoints = Collections.unmodifiableSet(new HashSet<String>(endpoints));
+    }
+
+    /**
+     * @return whether requests to an endpoint are hedged. Only GETs are, since they are safe to send twice
+     */
+    public boolean isHedged(String verb, String endpoint) {
+        return verb.equals("GET") && endpoints.contains(endpoint);
+    }
+
+    /**
+     * Records a hedged request with the budget and decides how long to wait before hedging it
+     * @param endpoint the endpoint of the request
+     * @return the delay in nanoseconds, or -1 if too little is known about the endpoint's latency to hedge yet
+     */
+    public long hedgeDelay(String endpoint) {
+        budget.onRequest();
+        long threshold = latency(endpoint).percentile();
+        return threshold < 0 ? -1 : Math.max(minDelayNanos, threshold);
+    }
+
+    /**
+     * Withdraws a hedge from the budget once a request has taken longer than its delay
+     * @return whether the hedge may be sent
+     */
+    public boolean tryHedge() {
+        if (!budget.tryRetry()) {
+            budgetExhausted.increment();
+            return false;
+        }
+
+        hedges.increment();
+        return true;
+    }
+
+    /**
+     * Records the latency of a response that was read successfully
+     */
+    public void onResponse(String endpoint, long latencyNanos) {
+        latency(endpoint).record(latencyNanos);
+    }
+
+    /**
+     * Records that a hedge answered before the request it was hedging
+     */
+    public void onHedgeWon() {
+        hedgesWon.increment();
+    }
+
+    private RecentLatency latency(String endpoint) {
+        RecentLatency latency = latencies.get(endpoint);
+        if (latency == null) {
+            RecentLatency created = new RecentLatency(percentile);
+            latency = latencies.putIfAbsent(endpoint, created);
+            if (latency == null)
+                latency = created;
+        }
+
+        return latency;
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return the number of hedges that answered first
+     */
+    public long getHedgesWonCount() {
+        return hedgesWon.sum();
+    }
+
+    /**
+     * @return the number of slow requests left unhedged because the budget was spent
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.sum();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.hedge;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the last few responses of one endpoint, and a percentile of them that is recomputed every few
+ * samples rather than on every read
+ */
+class RecentLatency {
+
+    private static final int WINDOW = 128;
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private final double percentile;
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+    private int sinceRecompute;
+    private volatile long cached = -1;
+
+    RecentLatency(double percentile) {
+        this.percentile = percentile;
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW)
+            count++;
+
+        if (++sinceRecompute >= RECOMPUTE_EVERY) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(count * (percentile / 100.0));
+            cached = sorted[Math.max(0, Math.min(count, rank) - 1)];
+        }
+    }
+
+    /**
+     * @return the percentile in nanoseconds, or -1 until enough samples have been recorded
+     */
+    long percentile() {
+        return cached;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable hash index from string keys to the rows holding them. Keys live in an open-addressing table and their
+ * rows in one shared postings array, in ascending order, so an index over millions of rows costs a few ints per row
+ * instead of a boxed list per key.
+ */
+final class KeyIndex {
+
+    private final String[] slots;
+    private final int[] slotIds;
+    private final int[] offsets;
+    private final int[] postings;
+
+    /**
+     * @param rowKeys the key of every row, or null for rows without one
+     */
+    KeyIndex(String[] rowKeys) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        int[] rowIds = new int[rowKeys.length];
+        int[] counts = new int[Math.max(16, rowKeys.length / 4)];
+        for (int row = 0; row < rowKeys.length; ++row) {
+            String key = rowKeys[row];
+            if (key == null) {
+                rowIds[row] = -1;
+                continue;
+            }
+
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+                if (id == counts.length)
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            rowIds[row] = id;
+            counts[id]++;
+        }
+
+        offsets = new int[ids.size() + 1];
+        for (int id = 0; id < ids.size(); ++id)
+            offsets[id + 1] = offsets[id] + counts[id];
+
+        postings = new int[offsets[ids.size()]];
+        int[] next = Arrays.copyOf(offsets, ids.size());
+        for (int row = 0; row < rowKeys.length; ++row) {
+            if (rowIds[row] >= 0)
+                postings[next[rowIds[row]]++] = row;
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(2, ids.size()) * 2 - 1) << 1;
+        slots = new String[capacity];
+        slotIds = new int[capacity];
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            int slot = slotOf(entry.getKey());
+            while (slots[slot] != null)
+                slot = (slot + 1) & (capacity - 1);
+            slots[slot] = entry.getKey();
+            slotIds[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return the id of the key, or -1 if no row holds it
+     */
+    int find(String key) {
+        if (key == null)
+            return -1;
+
+        for (int slot = slotOf(key); slots[slot] != null; slot = (slot + 1) & (slots.length - 1)) {
+            if (slots[slot].equals(key))
+                return slotIds[slot];
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the position in {@link #row(int)} of the first row holding the key that is at least {@code fromRow}
+     */
+    int lowerBound(int id, int fromRow) {
+        int low = offsets[id];
+        int high = offsets[id + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings[mid] < fromRow)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the position just past the last row holding the key
+     */
+    int end(int id) {
+        return offsets[id + 1];
+    }
+
+    int size(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    boolean contains(int id, int row) {
+        int position = lowerBound(id, row);
+        return position < end(id) && postings[position] == row;
+    }
+
+    int row(int position) {
+        return postings[position];
+    }
+
+    private int slotOf(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.index;
+
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.TransactionStatus;
+import com.createtank.payments.coinbase.models.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * An immutable in-memory index over a set of transactions, for filtering the same history many times by status,
+ * counterparty and creation time without scanning it.
+ *
+ * Transactions are kept sorted by creation time, so a time range is two binary searches over a {@code long[]}. Each
+ * status has a bitmap over the rows, and sender and recipient each have a hash index from key to the rows holding
+ * it. Queries combine these, counting with bit operations where they can, and only touch the transactions they
+ * return. Besides the transactions themselves, the index costs a few dozen bytes per transaction.
+ *
+ * Senders are indexed by email and recipients by email or, for sends to a bitcoin address, by address. Keys match
+ * exactly.
+ */
+public class TransactionIndex {
+
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+
+    private final Transaction[] rows;
+    private final long[] createdAt;
+    private final long[][] statusBits;
+    private final KeyIndex senders;
+    private final KeyIndex recipients;
+
+    /**
+     * Indexes transactions, in any order. Transactions whose creation time is unknown sort first, at -1
+     */
+    public TransactionIndex(Transaction[] transactions) {
+        int count = transactions.length;
+        long[] millis = new long[count];
+        for (int i = 0; i < count; ++i)
+            millis[i] = transactions[i].getCreatedAtMillis();
+        int[] order = sortedOrder(millis);
+
+        rows = new Transaction[count];
+        createdAt = new long[count];
+        statusBits = new long[STATUSES.length][(count + 63) >>> 6];
+        String[] senderKeys = new String[count];
+        String[] recipientKeys = new String[count];
+        for (int row = 0; row < count; ++row) {
+            Transaction transaction = transactions[order[row]];
+            rows[row] = transaction;
+            createdAt[row] = millis[order[row]];
+            if (transaction.getStatus() != null)
+                statusBits[transaction.getStatus().ordinal()][row >>> 6] |= 1L << row;
+            senderKeys[row] = emailOf(transaction.getSender());
+            recipientKeys[row] = emailOf(transaction.getRecipient()) != null ? emailOf(transaction.getRecipient())
+                    : transaction.getRecipientAddress();
+        }
+
+        senders = new KeyIndex(senderKeys);
+        recipients = new KeyIndex(recipientKeys);
+    }
+
+    public static TransactionIndex of(Stream<Transaction> transactions) {
+        return new TransactionIndex(transactions.toArray(Transaction[]::new));
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * @return a new query matching every transaction, to be narrowed down
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    /**
+     * A filter over the index. Every condition set narrows it further
+     */
+    public final class Query {
+        private TransactionStatus status;
+        private boolean anyStatus = true;
+        private String sender;
+        private String recipient;
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+
+        private Query() {
+        }
+
+        public Query status(TransactionStatus status) {
+            this.status = status;
+            this.anyStatus = false;
+            return this;
+        }
+
+        /**
+         * @param email the email of the sender
+         */
+        public Query sender(String email) {
+            this.sender = email;
+            return this;
+        }
+
+        /**
+         * @param emailOrAddress the email of the recipient, or the bitcoin address sent to
+         */
+        public Query recipient(String emailOrAddress) {
+            this.recipient = emailOrAddress;
+            return this;
+        }
+
+        /**
+         * @param fromMillis the start of the range, inclusive, in milliseconds since the epoch
+         * @param toMillis the end of the range, exclusive
+         */
+        public Query createdBetween(long fromMillis, long toMillis) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            return this;
+        }
+
+        public int count() {
+            int from = lowerBound(fromMillis);
+            int to = Math.max(from, lowerBound(toMillis));
+            if (sender == null && recipient == null) {
+                if (anyStatus)
+                    return to - from;
+                if (status == null)
+                    return to - from - countAnyStatus(from, to);
+                return countBits(statusBits[status.ordinal()], from, to);
+            }
+
+            int[] count = new int[1];
+            forEachRow(from, to, row -> count[0]++);
+            return count[0];
+        }
+
+        /**
+         * @return the matching transactions, oldest first
+         */
+        public List<Transaction> list() {
+            List<Transaction> result = new ArrayList<Transaction>();
+            forEach(result::add);
+            return result;
+        }
+
+        /**
+         * Passes the matching transactions to the action, oldest first
+         */
+        public void forEach(Consumer<Transaction> action) {
+            int from = lowerBound(fromMillis);
+            int to = Math.max(from, lowerBound(toMillis));
+            forEachRow(from, to, row -> action.accept(rows[row]));
+        }
+
+        private void forEachRow(int from, int to, RowVisitor visitor) {
+            int senderId = -1;
+            int recipientId = -1;
+            if (sender != null && (senderId = senders.find(sender)) < 0)
+                return;
+            if (recipient != null && (recipientId = recipients.find(recipient)) < 0)
+                return;
+
+            if (senderId >= 0 || recipientId >= 0) {
+                // walk the rows of the rarer key, checking the other one by binary search
+                boolean bySender = recipientId < 0
+                        || senderId >= 0 && senders.size(senderId) <= recipients.size(recipientId);
+                KeyIndex keys = bySender ? senders : recipients;
+                KeyIndex other = bySender ? recipients : senders;
+                int id = bySender ? senderId : recipientId;
+                int otherId = bySender ? recipientId : senderId;
+                for (int position = keys.lowerBound(id, from); position < keys.end(id); ++position) {
+                    int row = keys.row(position);
+                    if (row >= to)
+                        break;
+                    if (otherId >= 0 && !other.contains(otherId, row))
+                        continue;
+                    if (matchesStatus(row))
+                        visitor.visit(row);
+                }
+                return;
+            }
+
+            for (int row = from; row < to; ++row) {
+                if (!anyStatus && status != null) {
+                    long word = statusBits[status.ordinal()][row >>> 6] >>> row;
+                    if (word == 0) {
+                        row |= 63;
+                        continue;
+                    }
+                    row += Long.numberOfTrailingZeros(word);
+                    if (row >= to)
+                        break;
+                }
+                if (matchesStatus(row))
+                    visitor.visit(row);
+            }
+        }
+
+        private boolean matchesStatus(int row) {
+            if (anyStatus)
+                return true;
+            if (status != null)
+                return (statusBits[status.ordinal()][row >>> 6] & 1L << row) != 0;
+            for (long[] bits : statusBits) {
+                if ((bits[row >>> 6] & 1L << row) != 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private interface RowVisitor {
+        void visit(int row);
+    }
+
+    /**
+     * @return the first row created at or after the time
+     */
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = createdAt.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (createdAt[mid] < millis)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Sorts positions by their keys with a stable bottom-up merge sort, which avoids boxing every position
+     * @return the positions of the keys in ascending order
+     */
+    private static int[] sortedOrder(long[] keys) {
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+
+        int[] buffer = new int[keys.length];
+        for (int width = 1; width < order.length; width <<= 1) {
+            for (int low = 0; low < order.length; low += width << 1) {
+                int mid = Math.min(low + width, order.length);
+                int high = Math.min(low + (width << 1), order.length);
+                if (mid == high || keys[order[mid - 1]] <= keys[order[mid]]) {
+                    System.arraycopy(order, low, buffer, low, high - low);
+                    continue;
+                }
+
+                int left = low;
+                int right = mid;
+                for (int out = low; out < high; ++out) {
+                    if (right >= high || left < mid && keys[order[left]] <= keys[order[right]])
+                        buffer[out] = order[left++];
+                    else
+                        buffer[out] = order[right++];
+                }
+            }
+
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+
+        return order;
+    }
+
+    private int countAnyStatus(int from, int to) {
+        int count = 0;
+        for (long[] bits : statusBits)
+            count += countBits(bits, from, to);
+
+        return count;
+    }
+
+    private static int countBits(long[] bits, int from, int to) {
+        if (from >= to)
+            return 0;
+
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last)
+            return Long.bitCount(bits[first] & firstMask & lastMask);
+
+        int count = Long.bitCount(bits[first] & firstMask);
+        for (int word = first + 1; word < last; ++word)
+            count += Long.bitCount(bits[word]);
+
+        return count + Long.bitCount(bits[last] & lastMask);
+    }
+
+    private static String emailOf(User user) {
+        return user != null ? user.getEmail() : null;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.journal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The recorded intent of one money moving write: the api method it calls, its params and the idempotency key it is
+ * sent with
+ */
+public class JournalEntry {
+
+    private final String idempotencyKey;
+    private final String operation;
+    private final Map<String, String> params;
+    private final long createdAtMillis;
+
+    /**
+     * @param idempotencyKey the key the write is sent with
+     * @param operation the api method, such as "transactions/send_money"
+     * @param params the params of the write, without credentials
+     * @param createdAtMillis when the intent was recorded
+     */
+    public JournalEntry(String idempotencyKey, String operation, Map<String, String> params, long createdAtMillis) {
+        this.idempotencyKey = idempotencyKey;
+        this.operation = operation;
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<String, String>(params));
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.journal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The writes journal reconciliation could not resolve
+ */
+public class ReconcileResult {
+    private final List<JournalEntry> notFound;
+    private final List<JournalEntry> unknown;
+
+    public ReconcileResult(List<JournalEntry> notFound, List<JournalEntry> unknown) {
+        this.notFound = Collections.unmodifiableList(notFound);
+        this.unknown = Collections.unmodifiableList(unknown);
+    }
+
+    /**
+     * @return the writes with no matching transaction, which never reached coinbase and may be sent again. They are
+     * recorded as {@link WriteJournal.Outcome#NOT_FOUND}
+     */
+    public List<JournalEntry> getNotFound() {
+        return notFound;
+    }
+
+    /**
+     * @return the writes that cannot be matched, such as buys and sells, whose transfers carry no idempotency key.
+     * They may or may not have gone through, so they stay unresolved; check them by hand and record what became of
+     * them with {@link WriteJournal#recordOutcome(String, WriteJournal.Outcome, String)}
+     */
+    public List<JournalEntry> getUnknown() {
+        return unknown;
+    }
+}
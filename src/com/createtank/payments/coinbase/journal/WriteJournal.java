@@ -0,0 +1,505 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append-only log of money moving writes, so that a process that dies between sending a write and
+ * learning its outcome can find out on restart what it may have sent.
+ *
+ * The intent of a write is recorded, and synced to disk, before the write is sent; its outcome is recorded once it
+ * is known. On open the log is replayed and every intent without an outcome is reported by {@link #getUnresolved()},
+ * to be reconciled against the account's transaction history.
+ *
+ * The log is a memory-mapped file of length-prefixed, checksummed records. A torn record at the end, left by a crash
+ * in the middle of an append, fails its checksum and is discarded. Syncs are group committed: a single background
+ * thread syncs everything appended since its last sync, so concurrent writers share one fsync instead of queueing
+ * for one each. Outcomes are not waited for, since losing one only means the write is reconciled again. When the
+ * file fills up it is compacted into a new file holding only the unresolved intents, which replaces it atomically.
+ */
+public class WriteJournal implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    public static enum Outcome {
+        /** Coinbase accepted the write */
+        COMPLETED,
+        /** Coinbase rejected the write, so it did not move any money */
+        FAILED,
+        /** Reconciliation found no trace of the write in the transaction history */
+        NOT_FOUND
+    }
+
+    private static final byte INTENT = 1;
+    private static final byte OUTCOME = 2;
+    private static final int HEADER = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Map<String, JournalEntry> unresolved = new LinkedHashMap<String, JournalEntry>();
+    private final Thread syncer;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long appended;
+    private long syncedUpTo;
+    private long syncCount;
+    private int compactions;
+    private IOException syncError;
+    private boolean closed;
+
+    /**
+     * Opens or creates a journal of {@link #DEFAULT_CAPACITY} bytes and replays it
+     */
+    public WriteJournal(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Opens or creates a journal and replays it
+     * @param file the log file
+     * @param capacity the size the file is preallocated to before it is compacted. An existing larger file keeps its
+     * size
+     */
+    public WriteJournal(File file, int capacity) throws IOException {
+        if (capacity < 1024)
+            throw new IllegalArgumentException("capacity must be at least 1024 bytes");
+
+        this.file = file;
+        this.capacity = (int) Math.max(capacity, Math.min(Integer.MAX_VALUE, file.length()));
+        this.channel = openChannel(file, this.capacity);
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+            recover();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        syncer = new Thread(this::syncLoop, "coinbase-journal-" + file.getName());
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Records the intent of a write, returning once it is on disk
+     * @param idempotencyKey the key the write is sent with
+     * @param operation the api method, such as "transactions/send_money"
+     * @param params the params of the write. They must not contain credentials
+     * @throws IOException if the intent could not be synced; the write must not be sent then
+     */
+    public void recordIntent(String idempotencyKey, String operation, Map<String, String> params)
+            throws IOException {
+        JournalEntry entry = new JournalEntry(idempotencyKey, operation, params, System.currentTimeMillis());
+        byte[] record = encodeIntent(entry);
+
+        lock.lock();
+        try {
+            long sequence = append(record);
+            unresolved.put(idempotencyKey, entry);
+            awaitSynced(sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the outcome of a write without waiting for it to reach the disk
+     * @param idempotencyKey the key of the write
+     * @param outcome what became of it
+     * @param reference the id of the transaction or transfer it created, or null
+     */
+    public void recordOutcome(String idempotencyKey, Outcome outcome, String reference) throws IOException {
+        byte[] record = encodeOutcome(idempotencyKey, outcome, reference);
+
+        lock.lock();
+        try {
+            if (unresolved.remove(idempotencyKey) != null)
+                append(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the writes whose intent was recorded but whose outcome is not known, oldest first
+     */
+    public List<JournalEntry> getUnresolved() {
+        lock.lock();
+        try {
+            return new ArrayList<JournalEntry>(unresolved.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of syncs made, each covering every record appended before it
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times the file was compacted
+     */
+    public int getCompactionCount() {
+        lock.lock();
+        try {
+            return compactions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs everything recorded so far and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //region log
+
+    /**
+     * Replays the log, stopping at the first record that is incomplete or fails its checksum
+     */
+    private void recover() throws IOException {
+        int position = 0;
+        while (position + HEADER <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > capacity - position - HEADER)
+                break;
+
+            byte[] record = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER);
+            view.get(record);
+
+            if (checksum(record) != buffer.getInt(position + 4))
+                break;
+
+            apply(record);
+            position += HEADER + length;
+        }
+
+        //zero out a torn record so that a shorter record appended over it can't leave parts of it behind
+        if (position + HEADER <= capacity && buffer.getInt(position) != 0) {
+            for (int i = position; i < capacity; ++i)
+                buffer.put(i, (byte) 0);
+        }
+
+        buffer.position(position);
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long createdAtMillis = in.readLong();
+        String key = readString(in);
+        if (type == INTENT) {
+            String operation = readString(in);
+            int count = in.readInt();
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            for (int i = 0; i < count; ++i)
+                params.put(readString(in), readString(in));
+
+            unresolved.put(key, new JournalEntry(key, operation, params, createdAtMillis));
+        } else if (type == OUTCOME) {
+            unresolved.remove(key);
+        }
+    }
+
+    /**
+     * Appends a record, compacting the file first if it does not fit. The caller holds the lock
+     * @return the sequence number to wait for before the record is known to be on disk
+     */
+    private long append(byte[] record) throws IOException {
+        if (closed)
+            throw new IOException("Journal " + file + " is closed");
+        if (syncError != null)
+            throw new IOException("Journal " + file + " failed to sync", syncError);
+
+        if (buffer.remaining() < HEADER + record.length)
+            compact(HEADER + record.length);
+
+        write(buffer, record);
+        pending.signal();
+        return ++appended;
+    }
+
+    private static void write(MappedByteBuffer buffer, byte[] record) {
+        int start = buffer.position();
+        buffer.position(start + HEADER);
+        buffer.put(record);
+        buffer.putInt(start + 4, checksum(record));
+        buffer.putInt(start, record.length);
+    }
+
+    /**
+     * Writes the unresolved intents to a new file and moves it over the log. The new file is at least twice the size
+     * of what it holds, so that it is not compacted again straight away. The caller holds the lock
+     */
+    private void compact(int needed) throws IOException {
+        buffer.force();
+        syncedUpTo = appended;
+        synced.signalAll();
+
+        List<byte[]> records = new ArrayList<byte[]>(unresolved.size());
+        long size = needed;
+        for (JournalEntry entry : unresolved.values()) {
+            byte[] record = encodeIntent(entry);
+            records.add(record);
+            size += HEADER + record.length;
+        }
+
+        long newCapacity = capacity;
+        while (newCapacity < size * 2)
+            newCapacity *= 2;
+        if (newCapacity > Integer.MAX_VALUE)
+            throw new IOException("Journal " + file + " is full");
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileChannel newChannel = openChannel(tmp, (int) newCapacity);
+        try {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+            for (byte[] record : records)
+                write(newBuffer, record);
+            newBuffer.force();
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+
+            channel.close();
+            channel = newChannel;
+            buffer = newBuffer;
+            capacity = (int) newCapacity;
+            compactions++;
+        } catch (IOException | RuntimeException e) {
+            newChannel.close();
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Syncs the directory of the log so that the rename of a compacted file survives a crash. Not every platform
+     * allows opening a directory, in which case the rename is left to the file system
+     */
+    private void syncDirectory() {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null)
+            return;
+
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            //Ignore
+        }
+    }
+
+    private static FileChannel openChannel(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < capacity)
+                raf.setLength(capacity);
+
+            return raf.getChannel();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+    //endregion
+
+    //region group commit
+
+    /**
+     * Waits until the record with the given sequence number has been synced. The caller holds the lock
+     */
+    private void awaitSynced(long sequence) throws IOException {
+        while (syncedUpTo < sequence) {
+            if (syncError != null)
+                throw new IOException("Journal " + file + " failed to sync", syncError);
+
+            try {
+                synced.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while syncing journal " + file);
+            }
+        }
+    }
+
+    /**
+     * Syncs whatever has been appended since the last sync, releasing the lock while the sync runs so that writers
+     * can keep appending to the next batch
+     */
+    private void syncLoop() {
+        lock.lock();
+        try {
+            while (true) {
+                while (syncedUpTo == appended && !closed)
+                    pending.awaitUninterruptibly();
+
+                if (syncedUpTo == appended)
+                    return;
+
+                long target = appended;
+                MappedByteBuffer toSync = buffer;
+                lock.unlock();
+                try {
+                    toSync.force();
+                } catch (RuntimeException e) {
+                    lock.lock();
+                    syncError = new IOException(e);
+                    synced.signalAll();
+                    return;
+                }
+                lock.lock();
+
+                syncCount++;
+                if (target > syncedUpTo)
+                    syncedUpTo = target;
+                synced.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    //endregion
+
+    //region encoding
+    private static byte[] encodeIntent(JournalEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(INTENT);
+        out.writeLong(entry.getCreatedAtMillis());
+        writeString(out, entry.getIdempotencyKey());
+        writeString(out, entry.getOperation());
+        out.writeInt(entry.getParams().size());
+        for (Map.Entry<String, String> param : entry.getParams().entrySet()) {
+            writeString(out, param.getKey());
+            writeString(out, param.getValue());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeOutcome(String idempotencyKey, Outcome outcome, String reference)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OUTCOME);
+        out.writeLong(System.currentTimeMillis());
+        writeString(out, idempotencyKey);
+        out.writeByte(outcome.ordinal());
+        writeString(out, reference);
+
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+    //endregion
+}
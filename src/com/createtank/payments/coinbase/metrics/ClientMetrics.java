@@ -0,0 +1,53 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.metrics;
+
+/**
+ * Receives a record of every request made by a CoinbaseApi. Implementations are called on the request thread and
+ * must be thread safe and cheap.
+ */
+public interface ClientMetrics {
+
+    /**
+     * Discards everything
+     */
+    public static final ClientMetrics NONE = new ClientMetrics() {
+        @Override
+        public void onRequest(String endpoint, int statusCode, long latencyNanos, long bytesOut, long bytesIn) {
+        }
+
+        @Override
+        public void onTokenRefresh(String endpoint) {
+        }
+    };
+
+    /**
+     * Records a completed request
+     * @param endpoint the logical endpoint, such as "transactions" or "transactions/:id/complete_request"
+     * @param statusCode the HTTP status of the response, or 0 if no response was received
+     * @param latencyNanos the time from sending the request until the response was fully read
+     * @param bytesOut the size of the request body
+     * @param bytesIn the number of response body bytes read
+     */
+    public void onRequest(String endpoint, int statusCode, long latencyNanos, long bytesOut, long bytesIn);
+
+    /**
+     * Records that a request was answered with a 401 and the access token is being refreshed before retrying it
+     * @param endpoint the logical endpoint of the request
+     */
+    public void onTokenRefresh(String endpoint);
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps per-endpoint counters and latency histograms in memory. Recording never takes a lock, so it is cheap enough
+ * to leave on in production; call {@link #snapshot()} to scrape the current values.
+ */
+public class DefaultClientMetrics implements ClientMetrics {
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    private static class Endpoint {
+        final LongAdder requests = new LongAdder();
+        final LongAdder[] statusClasses = new LongAdder[6];
+        final LongAdder tokenRefreshes = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Endpoint() {
+            for (int i = 0; i < statusClasses.length; ++i)
+                statusClasses[i] = new LongAdder();
+        }
+    }
+
+    private Endpoint endpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = endpoints.putIfAbsent(name, created);
+            if (endpoint == null)
+                endpoint = created;
+        }
+
+        return endpoint;
+    }
+
+    @Override
+    public void onRequest(String endpoint, int statusCode, long latencyNanos, long bytesOut, long bytesIn) {
+        Endpoint metrics = endpoint(endpoint);
+        long micros = latencyNanos / 1000;
+
+        metrics.requests.increment();
+        int statusClass = statusCode / 100;
+        metrics.statusClasses[statusClass > 0 && statusClass < 6 ? statusClass : 0].increment();
+        metrics.bytesOut.add(bytesOut);
+        metrics.bytesIn.add(bytesIn);
+        metrics.maxLatency.accumulate(micros);
+        metrics.latency.record(micros);
+    }
+
+    @Override
+    public void onTokenRefresh(String endpoint) {
+        endpoint(endpoint).tokenRefreshes.increment();
+    }
+
+    /**
+     * @return the latency histogram of an endpoint, or null if it has not been called
+     */
+    public LatencyHistogram getLatency(String endpoint) {
+        Endpoint metrics = endpoints.get(endpoint);
+        return metrics != null ? metrics.latency : null;
+    }
+
+    /**
+     * @return a copy of the current metrics of every endpoint that has been called, keyed by endpoint
+     */
+    public Map<String, EndpointSnapshot> snapshot() {
+        Map<String, EndpointSnapshot> snapshot = new TreeMap<String, EndpointSnapshot>();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint metrics = entry.getValue();
+            long[] statusClasses = new long[metrics.statusClasses.length];
+            for (int i = 0; i < statusClasses.length; ++i)
+                statusClasses[i] = metrics.statusClasses[i].sum();
+
+            long[] percentiles = metrics.latency.percentiles(50, 99, 99.9);
+            snapshot.put(entry.getKey(), new EndpointSnapshot(entry.getKey(), metrics.requests.sum(), statusClasses,
+                    metrics.tokenRefreshes.sum(), metrics.bytesOut.sum(), metrics.bytesIn.sum(), percentiles[0],
+                    percentiles[1], percentiles[2], metrics.maxLatency.get()));
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Clears all recorded metrics
+     */
+    public void reset() {
+        endpoints.clear();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.metrics;
+
+/**
+ * A point-in-time copy of the metrics recorded for one endpoint. Latencies are in microseconds.
+ */
+public class EndpointSnapshot {
+
+    private final String endpoint;
+    private final long requests;
+    private final long[] statusClasses;
+    private final long tokenRefreshes;
+    private final long bytesOut;
+    private final long bytesIn;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long maxLatency;
+
+    EndpointSnapshot(String endpoint, long requests, long[] statusClasses, long tokenRefreshes, long bytesOut,
+                     long bytesIn, long p50, long p99, long p999, long maxLatency) {
+        this.endpoint = endpoint;
+        this.requests = requests;
+        this.statusClasses = statusClasses;
+        this.tokenRefreshes = tokenRefreshes;
+        this.bytesOut = bytesOut;
+        this.bytesIn = bytesIn;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.maxLatency = maxLatency;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @param statusClass the first digit of the status code, 1 to 5
+     * @return the number of responses with a status in that class
+     */
+    public long getResponses(int statusClass) {
+        return statusClasses[statusClass];
+    }
+
+    /**
+     * @return the number of requests that failed without an HTTP response
+     */
+    public long getFailures() {
+        return statusClasses[0];
+    }
+
+    public long getTokenRefreshes() {
+        return tokenRefreshes;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + " requests=" + requests + " 2xx=" + statusClasses[2] + " 4xx=" + statusClasses[4] +
+                " 5xx=" + statusClasses[5] + " failures=" + statusClasses[0] + " refreshes=" + tokenRefreshes +
+                " bytesOut=" + bytesOut + " bytesIn=" + bytesIn + " p50=" + p50 + "us p99=" + p99 + "us p999=" +
+                p999 + "us max=" + maxLatency + "us";
+    }
+}
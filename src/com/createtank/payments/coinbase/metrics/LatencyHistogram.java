@@ -0,0 +1,120 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-size latency histogram with HDR-style log-linear buckets. Values below 64 microseconds are
+ * counted exactly; above that every power of two is split into 32 buckets, which bounds the error of a reported
+ * percentile to about 3%. Values are recorded in microseconds up to roughly 12 days.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 35;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records one value
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(bucketOf(micros));
+    }
+
+    /**
+     * Returns the value at the given percentile of everything recorded so far
+     * @param percentile a percentile between 0 and 100, for example 99.9
+     * @return the latency in microseconds, or 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        return percentile(snapshot, total, percentile);
+    }
+
+    /**
+     * Returns several percentiles computed from one consistent read of the buckets
+     */
+    public long[] percentiles(double... percentiles) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; ++i)
+            result[i] = percentile(snapshot, total, percentiles[i]);
+
+        return result;
+    }
+
+    private static long percentile(long[] snapshot, long total, double percentile) {
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(total * (percentile / 100.0));
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return valueOf(i);
+        }
+
+        return valueOf(snapshot.length - 1);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS)
+            return micros < 0 ? 0 : (int) micros;
+
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT)
+            return BUCKET_COUNT - 1;
+
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the midpoint of the values counted in a bucket
+     */
+    static long valueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS)
+            return bucket;
+
+        int offset = bucket - LINEAR_BUCKETS;
+        int shift = offset / SUB_BUCKETS + 1;
+        long lowest = (long) (offset % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >>> 1);
+    }
+}
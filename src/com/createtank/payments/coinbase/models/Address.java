@@ -17,6 +17,9 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
 
 public class Address implements IJsonSerializable {
     private String address;
@@ -56,6 +59,34 @@ public class Address implements IJsonSerializable {
                         json.get("created_at").getAsString() : null);
     }
 
+    /**
+     * Reads an address from a stream positioned at the start of the address object
+     */
+    public static Address fromJson(JsonReader reader) throws IOException {
+        String address = null;
+        String callbackUrl = null;
+        String label = null;
+        String createdAt = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("address"))
+                address = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("callback_url"))
+                callbackUrl = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("label"))
+                label = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("created_at"))
+                createdAt = JsonStreams.nextStringOrNull(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return new Address(address, callbackUrl, label, createdAt);
+    }
+
     @Override
     public JsonObject toJson() {
         JsonObject json = new JsonObject();
@@ -17,6 +17,11 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class Amount implements IJsonSerializable {
 
@@ -31,6 +36,19 @@ public class Amount implements IJsonSerializable {
         return currency;
     }
 
+    /**
+     * @return the amount in hundred-millionths of the currency, parsed without creating any objects
+     * @throws NumberFormatException if the amount is missing or not a decimal
+     * @see Money
+     */
+    public long getUnits() {
+        return Money.parseUnits(amount);
+    }
+
+    public Money toMoney() {
+        return Money.of(this);
+    }
+
     public void setAmount(String amount) {
         this.amount = amount;
     }
@@ -47,6 +65,51 @@ public class Amount implements IJsonSerializable {
         return amount;
     }
 
+    /**
+     * Reads an amount from a stream positioned at the start of the amount object
+     */
+    public static Amount fromJson(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        Amount amount = new Amount();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("amount"))
+                amount.setAmount(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("currency"))
+                amount.setCurrency(JsonStreams.nextStringOrNull(reader));
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return amount;
+    }
+
+    /**
+     * Writes an amount, or null, in the compact binary form read by {@link #fromBinary(DataInput)}
+     */
+    public static void toBinary(Amount amount, DataOutput out) throws IOException {
+        if (!BinaryStreams.writePresence(out, amount))
+            return;
+
+        BinaryStreams.writeString(out, amount.amount);
+        BinaryStreams.writeString(out, amount.currency);
+    }
+
+    public static Amount fromBinary(DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        Amount amount = new Amount();
+        amount.setAmount(BinaryStreams.readString(in));
+        amount.setCurrency(BinaryStreams.readString(in));
+
+        return amount;
+    }
+
     @Override
     public JsonObject toJson() {
         JsonObject json = new JsonObject();
@@ -0,0 +1,80 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers shared by the compact binary toBinary/fromBinary methods of the model classes, which local stores use to
+ * keep models on disk. Every nullable value is preceded by a marker so that null survives the round trip.
+ */
+public final class BinaryStreams {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BinaryStreams() {
+    }
+
+    /**
+     * Writes a string of any length as its UTF-8 length and bytes, or -1 for null
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes a status as its ordinal, or -1 for null
+     */
+    public static void writeStatus(DataOutput out, TransactionStatus status) throws IOException {
+        out.writeByte(status != null ? status.ordinal() : -1);
+    }
+
+    public static TransactionStatus readStatus(DataInput in) throws IOException {
+        int ordinal = in.readByte();
+        return ordinal >= 0 ? TransactionStatus.values()[ordinal] : null;
+    }
+
+    /**
+     * Writes whether a nullable value is present
+     * @return whether it is, in which case the value must be written next
+     */
+    public static boolean writePresence(DataOutput out, Object value) throws IOException {
+        out.writeBoolean(value != null);
+        return value != null;
+    }
+}
@@ -17,6 +17,11 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class Fee implements IJsonSerializable {
     private int cents;
@@ -46,6 +51,51 @@ public class Fee implements IJsonSerializable {
         return fee;
     }
 
+    /**
+     * Reads a fee from a stream positioned at the start of the fee object
+     */
+    public static Fee fromJson(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        Fee fee = new Fee();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("cents"))
+                fee.setCents(JsonStreams.nextInt(reader));
+            else if (name.equals("currency"))
+                fee.setCurrency(JsonStreams.nextStringOrNull(reader));
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return fee;
+    }
+
+    /**
+     * Writes a fee, or null, in the compact binary form read by {@link #fromBinary(DataInput)}
+     */
+    public static void toBinary(Fee fee, DataOutput out) throws IOException {
+        if (!BinaryStreams.writePresence(out, fee))
+            return;
+
+        out.writeInt(fee.cents);
+        BinaryStreams.writeString(out, fee.currency);
+    }
+
+    public static Fee fromBinary(DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        Fee fee = new Fee();
+        fee.setCents(in.readInt());
+        fee.setCurrency(BinaryStreams.readString(in));
+
+        return fee;
+    }
+
     @Override
     public JsonObject toJson() {
         JsonObject json = new JsonObject();
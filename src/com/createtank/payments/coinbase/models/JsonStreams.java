@@ -0,0 +1,88 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.models;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Helpers shared by the streaming fromJson(JsonReader) readers of the model classes
+ */
+public final class JsonStreams {
+
+    private JsonStreams() {
+    }
+
+    /**
+     * Reads a string, number or boolean value as a string, or returns null for a json null
+     */
+    public static String nextStringOrNull(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        if (token == JsonToken.BOOLEAN)
+            return Boolean.toString(reader.nextBoolean());
+
+        return reader.nextString();
+    }
+
+    /**
+     * Reads a boolean, accepting "true"/"false" strings as well
+     */
+    public static boolean nextBoolean(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING)
+            return Boolean.parseBoolean(reader.nextString());
+
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Reads an int, returning 0 for a json null
+     */
+    public static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+
+        return reader.nextInt();
+    }
+
+    /**
+     * Consumes a json null if it is the next token
+     * @return whether a null was consumed
+     */
+    public static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+
+        return false;
+    }
+}
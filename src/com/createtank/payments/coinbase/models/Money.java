@@ -0,0 +1,278 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.models;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An exact amount of a currency, held as a count of hundred-millionths of the currency: satoshis for BTC, and the same
+ * eighth decimal place for every other currency, which covers the amounts coinbase returns.
+ *
+ * Unlike {@link Amount}, which keeps the decimal string coinbase sent, a Money adds, subtracts and compares without
+ * rounding or allocating decimals. To sum many amounts, add up {@link Amount#getUnits()} in a long. BTC and the ISO
+ * currency codes are interned, so that millions of amounts share a handful of strings; other codes are kept as given.
+ */
+public final class Money implements Comparable<Money> {
+
+    /** The number of decimal places of every amount */
+    public static final int SCALE = 8;
+    /** The number of units in one BTC, or one of any other currency */
+    public static final long UNITS_PER_COIN = 100000000L;
+    public static final String BTC = "BTC";
+
+    /** The codes amounts share, fixed so that codes read from responses cannot grow it */
+    private static final Map<String, String> CURRENCIES;
+
+    static {
+        Map<String, String> currencies = new HashMap<String, String>();
+        for (Currency currency : Currency.getAvailableCurrencies())
+            currencies.put(currency.getCurrencyCode(), currency.getCurrencyCode());
+        currencies.put(BTC, BTC);
+        CURRENCIES = Collections.unmodifiableMap(currencies);
+    }
+
+    private final long units;
+    private final String currency;
+
+    private Money(long units, String currency) {
+        this.units = units;
+        this.currency = currency;
+    }
+
+    /**
+     * @param units the amount in hundred-millionths of the currency
+     * @param currency an ISO code such as BTC or USD
+     */
+    public static Money ofUnits(long units, String currency) {
+        return new Money(units, intern(currency));
+    }
+
+    public static Money btc(long satoshis) {
+        return new Money(satoshis, BTC);
+    }
+
+    /**
+     * Parses a decimal amount such as ‘1.234’ or ‘-0.00010000’
+     * @throws NumberFormatException if the amount is malformed, has non-zero digits past the eighth decimal place, or
+     * does not fit
+     */
+    public static Money parse(CharSequence amount, String currency) {
+        return new Money(parseUnits(amount), intern(currency));
+    }
+
+    /**
+     * @return the amount of an {@link Amount}, or null for null
+     */
+    public static Money of(Amount amount) {
+        return amount != null ? parse(amount.getAmount(), amount.getCurrency()) : null;
+    }
+
+    /**
+     * Parses a decimal amount into hundred-millionths, without creating any objects unless it is malformed
+     * @throws NumberFormatException if the amount is malformed, has non-zero digits past the eighth decimal place, or
+     * does not fit
+     */
+    public static long parseUnits(CharSequence amount) {
+        if (amount == null)
+            throw new NumberFormatException("null amount");
+
+        return parseUnits(amount, 0, amount.length());
+    }
+
+    /**
+     * Parses the decimal amount between start and end of a sequence into hundred-millionths
+     * @see #parseUnits(CharSequence)
+     */
+    public static long parseUnits(CharSequence amount, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (amount.charAt(i) == '-' || amount.charAt(i) == '+')) {
+            negative = amount.charAt(i) == '-';
+            i++;
+        }
+
+        //accumulated negatively, so that Long.MIN_VALUE parses too
+        long units = 0;
+        int digits = 0;
+        for (; i < end && amount.charAt(i) != '.'; i++) {
+            int digit = digit(amount, i);
+            if (units < (Long.MIN_VALUE + digit) / 10)
+                throw tooLarge(amount, start, end);
+
+            units = units * 10 - digit;
+            digits++;
+        }
+
+        int decimals = 0;
+        if (i < end) {
+            for (i++; i < end; i++) {
+                int digit = digit(amount, i);
+                if (decimals < SCALE) {
+                    if (units < (Long.MIN_VALUE + digit) / 10)
+                        throw tooLarge(amount, start, end);
+
+                    units = units * 10 - digit;
+                    decimals++;
+                } else if (digit != 0) {
+                    throw new NumberFormatException("More than " + SCALE + " decimal places: "
+                            + amount.subSequence(start, end));
+                }
+                digits++;
+            }
+        }
+
+        if (digits == 0)
+            throw new NumberFormatException("No digits: " + amount.subSequence(start, end));
+
+        for (; decimals < SCALE; decimals++) {
+            if (units < Long.MIN_VALUE / 10)
+                throw tooLarge(amount, start, end);
+
+            units *= 10;
+        }
+
+        if (!negative) {
+            if (units == Long.MIN_VALUE)
+                throw tooLarge(amount, start, end);
+
+            return -units;
+        }
+
+        return units;
+    }
+
+    private static int digit(CharSequence amount, int i) {
+        char c = amount.charAt(i);
+        if (c < '0' || c > '9')
+            throw new NumberFormatException("Not a decimal amount: " + amount);
+
+        return c - '0';
+    }
+
+    private static NumberFormatException tooLarge(CharSequence amount, int start, int end) {
+        return new NumberFormatException("Amount too large: " + amount.subSequence(start, end));
+    }
+
+    private static String intern(String currency) {
+        if (currency == null)
+            throw new IllegalArgumentException("currency is required");
+
+        String interned = CURRENCIES.get(currency);
+        return interned != null ? interned : currency;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public boolean isBtc() {
+        return currency == BTC || currency.equals(BTC);
+    }
+
+    public Money add(Money other) {
+        checkCurrency(other);
+        return new Money(Math.addExact(units, other.units), currency);
+    }
+
+    public Money subtract(Money other) {
+        checkCurrency(other);
+        return new Money(Math.subtractExact(units, other.units), currency);
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(units), currency);
+    }
+
+    public int signum() {
+        return Long.signum(units);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the amounts are in different currencies
+     */
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(units, other.units);
+    }
+
+    private void checkCurrency(Money other) {
+        if (currency != other.currency && !currency.equals(other.currency))
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " and " + other.currency);
+    }
+
+    public Amount toAmount() {
+        Amount amount = new Amount();
+        amount.setAmount(toPlainString());
+        amount.setCurrency(currency);
+
+        return amount;
+    }
+
+    /**
+     * @return the amount as a decimal without trailing zeros, such as ‘1.5’ or ‘-0.0001’, as coinbase accepts it
+     */
+    public String toPlainString() {
+        long whole = units / UNITS_PER_COIN;
+        long fraction = Math.abs(units % UNITS_PER_COIN);
+
+        StringBuilder out = new StringBuilder(24);
+        if (units < 0)
+            out.append('-');
+        out.append(Math.abs(whole));
+        if (fraction != 0) {
+            out.append('.');
+            int length = out.length();
+            out.append(fraction + UNITS_PER_COIN).deleteCharAt(length);
+            int last = out.length();
+            while (out.charAt(last - 1) == '0')
+                last--;
+            out.setLength(last);
+        }
+
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Money))
+            return false;
+
+        Money other = (Money) o;
+        return units == other.units && currency.equals(other.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(units) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toPlainString() + " " + currency;
+    }
+}
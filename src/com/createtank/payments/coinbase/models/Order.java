@@ -0,0 +1,232 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.models;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * A merchant order, created when a customer pays through a payment button and sent to the button's callback_url as
+ * its status changes
+ */
+public class Order implements IJsonSerializable {
+    private String id;
+    private String createdAt;
+    private String status;
+    private String custom;
+    private String receiveAddress;
+    private Amount totalBtc;
+    private Amount totalNative;
+    private String buttonId;
+    private String transactionId;
+    private String transactionHash;
+    private int confirmations;
+    private String customerEmail;
+
+    //region accessors
+    public String getId() {
+        return id;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the status of the order, such as "completed", "mispaid" or "expired"
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the custom parameter of the button the order was paid through
+     */
+    public String getCustom() {
+        return custom;
+    }
+
+    public String getReceiveAddress() {
+        return receiveAddress;
+    }
+
+    public Amount getTotalBtc() {
+        return totalBtc;
+    }
+
+    public Amount getTotalNative() {
+        return totalNative;
+    }
+
+    public String getButtonId() {
+        return buttonId;
+    }
+
+    /**
+     * @return the id of the coinbase transaction paying the order, or null if it is not paid
+     */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public String getTransactionHash() {
+        return transactionHash;
+    }
+
+    public int getConfirmations() {
+        return confirmations;
+    }
+
+    public String getCustomerEmail() {
+        return customerEmail;
+    }
+    //endregion
+
+    /**
+     * Reads an order from a stream positioned at the start of the order object
+     */
+    public static Order fromJson(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        Order order = new Order();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                order.id = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("created_at")) {
+                order.createdAt = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("status")) {
+                order.status = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("custom")) {
+                order.custom = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("receive_address")) {
+                order.receiveAddress = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("total_btc")) {
+                order.totalBtc = centsFromJson(reader);
+            } else if (name.equals("total_native")) {
+                order.totalNative = centsFromJson(reader);
+            } else if (name.equals("button")) {
+                order.buttonId = fieldFromJson(reader, "id");
+            } else if (name.equals("customer")) {
+                order.customerEmail = fieldFromJson(reader, "email");
+            } else if (name.equals("transaction") && !JsonStreams.skipNull(reader)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("id"))
+                        order.transactionId = JsonStreams.nextStringOrNull(reader);
+                    else if (field.equals("hash"))
+                        order.transactionHash = JsonStreams.nextStringOrNull(reader);
+                    else if (field.equals("confirmations"))
+                        order.confirmations = JsonStreams.nextInt(reader);
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return order;
+    }
+
+    /**
+     * Reads a {"cents": ..., "currency_iso": ...} object, where cents are hundredths of fiat currencies and satoshis
+     * of BTC
+     */
+    private static Amount centsFromJson(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        String cents = null;
+        String currency = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("cents"))
+                cents = JsonStreams.nextStringOrNull(reader);
+            else if (name.equals("currency_iso"))
+                currency = JsonStreams.nextStringOrNull(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        Amount amount = new Amount();
+        amount.setCurrency(currency);
+        if (cents != null)
+            amount.setAmount(new BigDecimal(cents).movePointLeft("BTC".equals(currency) ? 8 : 2).toPlainString());
+
+        return amount;
+    }
+
+    /**
+     * Reads one string field of a nested object, skipping the rest
+     */
+    private static String fieldFromJson(JsonReader reader, String field) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field))
+                value = JsonStreams.nextStringOrNull(reader);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return value;
+    }
+
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        if (createdAt != null)
+            json.addProperty("created_at", createdAt);
+
+        if (status != null)
+            json.addProperty("status", status);
+
+        if (custom != null)
+            json.addProperty("custom", custom);
+
+        if (receiveAddress != null)
+            json.addProperty("receive_address", receiveAddress);
+
+        if (totalBtc != null)
+            json.add("total_btc", totalBtc.toJson());
+
+        if (totalNative != null)
+            json.add("total_native", totalNative.toJson());
+
+        if (transactionId != null)
+            json.addProperty("transaction_id", transactionId);
+
+        return json;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.models;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a paginated list response, together with the paging fields the api returns alongside it
+ */
+public class Page<T> {
+    private List<T> items;
+    private int currentPage;
+    private int numPages;
+    private int totalCount;
+
+    public Page(List<T> items, int currentPage, int numPages, int totalCount) {
+        this.items = items != null ? items : Collections.<T>emptyList();
+        this.currentPage = currentPage;
+        this.numPages = numPages;
+        this.totalCount = totalCount;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the number of this page, starting at 1, or 0 if the response did not include it
+     */
+    public int getCurrentPage() {
+        return currentPage;
+    }
+
+    /**
+     * @return the total number of pages, or 0 if the response did not include it
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the total number of items across all pages, or 0 if the response did not include it
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return whether no pages follow this one. Without paging fields, only an empty page counts as the last
+     */
+    public boolean isLast() {
+        if (numPages > 0 && currentPage > 0)
+            return currentPage >= numPages;
+
+        return items.isEmpty();
+    }
+}
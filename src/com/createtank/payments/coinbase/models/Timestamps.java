@@ -0,0 +1,113 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.models;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Converts the timestamps of the coinbase api, such as "2013-03-21T10:35:37-07:00"
+ */
+public final class Timestamps {
+
+    private Timestamps() {
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch, or -1 if the timestamp is missing or malformed
+     */
+    public static long toMillis(String timestamp) {
+        if (timestamp == null)
+            return -1;
+
+        long millis = parseFixed(timestamp);
+        if (millis != Long.MIN_VALUE)
+            return millis;
+
+        try {
+            return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the fixed "yyyy-MM-ddTHH:mm:ss+HH:MM" form the api uses without going through a formatter, which
+     * dominates building indexes over large histories
+     * @return the time in milliseconds, or Long.MIN_VALUE if the timestamp is in any other form
+     */
+    private static long parseFixed(String timestamp) {
+        if (timestamp.length() != 25 || timestamp.charAt(4) != '-' || timestamp.charAt(7) != '-'
+                || timestamp.charAt(10) != 'T' || timestamp.charAt(13) != ':' || timestamp.charAt(16) != ':'
+                || timestamp.charAt(22) != ':')
+            return Long.MIN_VALUE;
+
+        char sign = timestamp.charAt(19);
+        int year = digits(timestamp, 0, 4);
+        int month = digits(timestamp, 5, 2);
+        int day = digits(timestamp, 8, 2);
+        int hour = digits(timestamp, 11, 2);
+        int minute = digits(timestamp, 14, 2);
+        int second = digits(timestamp, 17, 2);
+        int offsetHours = digits(timestamp, 20, 2);
+        int offsetMinutes = digits(timestamp, 23, 2);
+        if ((sign != '+' && sign != '-') || (year | month | day | hour | minute | second | offsetHours
+                | offsetMinutes) < 0 || month < 1 || month > 12 || day < 1 || day > 28 && day > lengthOf(year, month)
+                || hour > 23 || minute > 59 || second > 59 || offsetHours > 18 || offsetMinutes > 59)
+            return Long.MIN_VALUE;
+
+        long offsetSeconds = (offsetHours * 3600 + offsetMinutes * 60) * (sign == '-' ? -1 : 1);
+        long seconds = epochDay(year, month, day) * 86400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return seconds * 1000;
+    }
+
+    /**
+     * @return the value of the decimal digits, or -1 if any character is not a digit
+     */
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; ++i) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            result = result * 10 + digit;
+        }
+
+        return result;
+    }
+
+    private static int lengthOf(int year, int month) {
+        if (month == 2)
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * @return the days since 1970-01-01 of a date in the proleptic gregorian calendar
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
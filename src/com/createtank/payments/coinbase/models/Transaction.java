@@ -17,6 +17,11 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class Transaction {
 
@@ -28,6 +33,7 @@ public class Transaction {
     private User sender;
     private User recipient;
     private String recipientAddress;
+    private String idem;
 
     private Transaction(String id, String createdAt, Amount amount, boolean request,
                         TransactionStatus status, User sender, String recipientAddress) {
@@ -48,7 +54,7 @@ public class Transaction {
         this.request = request;
         this.status = status;
         this.sender = sender;
-        this.recipientAddress = recipientAddress;
+        this.recipient = recipient;
     }
 
     //region accessors
@@ -60,6 +66,13 @@ public class Transaction {
         return createdAt;
     }
 
+    /**
+     * @return the creation time in milliseconds since the epoch, or -1 if it is unknown
+     */
+    public long getCreatedAtMillis() {
+        return Timestamps.toMillis(createdAt);
+    }
+
     public Amount getAmount() {
         return amount;
     }
@@ -76,10 +89,21 @@ public class Transaction {
         return sender;
     }
 
+    public User getRecipient() {
+        return recipient;
+    }
+
     public String getRecipientAddress() {
         return recipientAddress;
     }
 
+    /**
+     * @return the idempotency key the transaction was created with, or null
+     */
+    public String getIdem() {
+        return idem;
+    }
+
     public static Transaction fromJson(JsonObject json) {
         String id = json.get("id").getAsString();
         String createdAt = json.get("created_at").getAsString();
@@ -88,9 +112,95 @@ public class Transaction {
         TransactionStatus status = TransactionStatus.valueOf(json.get("status").getAsString().toUpperCase());
         User sender = User.fromJson(json.getAsJsonObject("sender"));
 
-        return json.has("recipient_address") ? new Transaction(id, createdAt, amount, request, status, sender,
-                json.get("recipient_address").getAsString()) : new Transaction(id, createdAt, amount, request, status,
-                sender, User.fromJson(json.getAsJsonObject("recipient")));
+        Transaction transaction = json.has("recipient_address") ? new Transaction(id, createdAt, amount, request,
+                status, sender, json.get("recipient_address").getAsString()) : new Transaction(id, createdAt, amount,
+                request, status, sender, User.fromJson(json.getAsJsonObject("recipient")));
+        String idem = json.has("idem") && !json.get("idem").isJsonNull() ? json.get("idem").getAsString() : null;
+        transaction.idem = idem != null && !idem.isEmpty() ? idem : null;
+
+        return transaction;
+    }
+
+    /**
+     * Reads a transaction from a stream positioned at the start of the transaction object
+     */
+    public static Transaction fromJson(JsonReader reader) throws IOException {
+        String id = null;
+        String createdAt = null;
+        Amount amount = null;
+        boolean request = false;
+        TransactionStatus status = null;
+        User sender = null;
+        User recipient = null;
+        String recipientAddress = null;
+        String idem = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id")) {
+                id = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("created_at")) {
+                createdAt = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("amount")) {
+                amount = Amount.fromJson(reader);
+            } else if (name.equals("request")) {
+                request = JsonStreams.nextBoolean(reader);
+            } else if (name.equals("status")) {
+                String value = JsonStreams.nextStringOrNull(reader);
+                status = value != null ? TransactionStatus.valueOf(value.toUpperCase()) : null;
+            } else if (name.equals("sender")) {
+                sender = User.fromJson(reader);
+            } else if (name.equals("recipient")) {
+                recipient = User.fromJson(reader);
+            } else if (name.equals("recipient_address")) {
+                recipientAddress = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("idem")) {
+                idem = JsonStreams.nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Transaction transaction = recipientAddress != null ? new Transaction(id, createdAt, amount, request,
+                status, sender, recipientAddress) : new Transaction(id, createdAt, amount, request, status, sender,
+                recipient);
+        transaction.idem = idem != null && !idem.isEmpty() ? idem : null;
+
+        return transaction;
+    }
+
+    /**
+     * Writes the transaction in the compact binary form read by {@link #fromBinary(DataInput)}
+     */
+    public void toBinary(DataOutput out) throws IOException {
+        BinaryStreams.writeString(out, id);
+        BinaryStreams.writeString(out, createdAt);
+        Amount.toBinary(amount, out);
+        out.writeBoolean(request);
+        BinaryStreams.writeStatus(out, status);
+        User.toBinary(sender, out);
+        User.toBinary(recipient, out);
+        BinaryStreams.writeString(out, recipientAddress);
+        BinaryStreams.writeString(out, idem);
+    }
+
+    public static Transaction fromBinary(DataInput in) throws IOException {
+        String id = BinaryStreams.readString(in);
+        String createdAt = BinaryStreams.readString(in);
+        Amount amount = Amount.fromBinary(in);
+        boolean request = in.readBoolean();
+        TransactionStatus status = BinaryStreams.readStatus(in);
+        User sender = User.fromBinary(in);
+        User recipient = User.fromBinary(in);
+        String recipientAddress = BinaryStreams.readString(in);
+
+        Transaction transaction = new Transaction(id, createdAt, amount, request, status, sender, recipient);
+        transaction.recipientAddress = recipientAddress;
+        transaction.idem = BinaryStreams.readString(in);
+
+        return transaction;
     }
     //endregion
 }
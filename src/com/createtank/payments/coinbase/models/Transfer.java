@@ -17,7 +17,11 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -63,6 +67,13 @@ public class Transfer {
         return createdAt;
     }
 
+    /**
+     * @return the creation time in milliseconds since the epoch, or -1 if it is unknown
+     */
+    public long getCreatedAtMillis() {
+        return Timestamps.toMillis(createdAt);
+    }
+
     public Map<String, Fee> getFees() {
         return fees;
     }
@@ -71,6 +82,10 @@ public class Transfer {
         return payoutDate;
     }
 
+    public String getTransactionId() {
+        return transactionId;
+    }
+
     public TransactionStatus getTransactionStatus() {
         return  status;
     }
@@ -109,4 +124,97 @@ public class Transfer {
                 json.get("description").getAsString());
     }
 
+    /**
+     * Reads a transfer from a stream positioned at the start of the transfer object
+     */
+    public static Transfer fromJson(JsonReader reader) throws IOException {
+        String type = null;
+        String code = null;
+        String createdAt = null;
+        Map<String, Fee> fees = new HashMap<String, Fee>();
+        String payoutDate = null;
+        String transactionId = null;
+        TransactionStatus status = null;
+        Amount btc = null;
+        Amount subtotal = null;
+        Amount total = null;
+        String description = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("type")) {
+                type = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("code")) {
+                code = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("created_at")) {
+                createdAt = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("fees")) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String feeName = reader.nextName();
+                    fees.put(feeName, Fee.fromJson(reader));
+                }
+                reader.endObject();
+            } else if (name.equals("payout_date")) {
+                payoutDate = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("transaction_id")) {
+                transactionId = JsonStreams.nextStringOrNull(reader);
+            } else if (name.equals("status")) {
+                String value = JsonStreams.nextStringOrNull(reader);
+                status = value != null ? TransactionStatus.valueOf(value.toUpperCase()) : null;
+            } else if (name.equals("btc")) {
+                btc = Amount.fromJson(reader);
+            } else if (name.equals("subtotal")) {
+                subtotal = Amount.fromJson(reader);
+            } else if (name.equals("total")) {
+                total = Amount.fromJson(reader);
+            } else if (name.equals("description")) {
+                description = JsonStreams.nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Transfer(type, code, createdAt, fees, payoutDate, transactionId, status, btc, subtotal, total,
+                description);
+    }
+
+    /**
+     * Writes the transfer in the compact binary form read by {@link #fromBinary(DataInput)}
+     */
+    public void toBinary(DataOutput out) throws IOException {
+        BinaryStreams.writeString(out, type);
+        BinaryStreams.writeString(out, code);
+        BinaryStreams.writeString(out, createdAt);
+        out.writeInt(fees != null ? fees.size() : 0);
+        if (fees != null) {
+            for (Map.Entry<String, Fee> fee : fees.entrySet()) {
+                BinaryStreams.writeString(out, fee.getKey());
+                Fee.toBinary(fee.getValue(), out);
+            }
+        }
+        BinaryStreams.writeString(out, payoutDate);
+        BinaryStreams.writeString(out, transactionId);
+        BinaryStreams.writeStatus(out, status);
+        Amount.toBinary(btc, out);
+        Amount.toBinary(subtotal, out);
+        Amount.toBinary(total, out);
+        BinaryStreams.writeString(out, description);
+    }
+
+    public static Transfer fromBinary(DataInput in) throws IOException {
+        String type = BinaryStreams.readString(in);
+        String code = BinaryStreams.readString(in);
+        String createdAt = BinaryStreams.readString(in);
+        int feeCount = in.readInt();
+        Map<String, Fee> fees = new HashMap<String, Fee>();
+        for (int i = 0; i < feeCount; ++i)
+            fees.put(BinaryStreams.readString(in), Fee.fromBinary(in));
+
+        return new Transfer(type, code, createdAt, fees, BinaryStreams.readString(in), BinaryStreams.readString(in),
+                BinaryStreams.readStatus(in), Amount.fromBinary(in), Amount.fromBinary(in), Amount.fromBinary(in),
+                BinaryStreams.readString(in));
+    }
 }
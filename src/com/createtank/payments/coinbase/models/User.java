@@ -17,6 +17,11 @@ limitations under the License.
 package com.createtank.payments.coinbase.models;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class User implements IJsonSerializable {
     protected String id;
@@ -125,6 +130,84 @@ public class User implements IJsonSerializable {
         return user;
     }
 
+    /**
+     * Reads a user from a stream positioned at the start of the user object. Fields missing from the stream, such
+     * as the limits on transaction senders, are left unset
+     */
+    public static User fromJson(JsonReader reader) throws IOException {
+        if (JsonStreams.skipNull(reader))
+            return null;
+
+        User user = new User();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("id"))
+                user.setId(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("email"))
+                user.setEmail(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("name"))
+                user.setName(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("time_zone"))
+                user.setTimezone(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("native_currency"))
+                user.setNativeCurrency(JsonStreams.nextStringOrNull(reader));
+            else if (name.equals("buy_level"))
+                user.setBuyLevel(JsonStreams.nextInt(reader));
+            else if (name.equals("sell_level"))
+                user.setSellLevel(JsonStreams.nextInt(reader));
+            else if (name.equals("balance"))
+                user.setBalance(Amount.fromJson(reader));
+            else if (name.equals("buy_limit"))
+                user.setBuyLimit(Amount.fromJson(reader));
+            else if (name.equals("sell_limit"))
+                user.setSellLimit(Amount.fromJson(reader));
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+
+        return user;
+    }
+
+    /**
+     * Writes a user, or null, in the compact binary form read by {@link #fromBinary(DataInput)}
+     */
+    public static void toBinary(User user, DataOutput out) throws IOException {
+        if (!BinaryStreams.writePresence(out, user))
+            return;
+
+        BinaryStreams.writeString(out, user.id);
+        BinaryStreams.writeString(out, user.email);
+        BinaryStreams.writeString(out, user.name);
+        BinaryStreams.writeString(out, user.timezone);
+        BinaryStreams.writeString(out, user.nativeCurrency);
+        out.writeInt(user.buyLevel);
+        out.writeInt(user.sellLevel);
+        Amount.toBinary(user.balance, out);
+        Amount.toBinary(user.buyLimit, out);
+        Amount.toBinary(user.sellLimit, out);
+    }
+
+    public static User fromBinary(DataInput in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        User user = new User();
+        user.setId(BinaryStreams.readString(in));
+        user.setEmail(BinaryStreams.readString(in));
+        user.setName(BinaryStreams.readString(in));
+        user.setTimezone(BinaryStreams.readString(in));
+        user.setNativeCurrency(BinaryStreams.readString(in));
+        user.setBuyLevel(in.readInt());
+        user.setSellLevel(in.readInt());
+        user.setBalance(Amount.fromBinary(in));
+        user.setBuyLimit(Amount.fromBinary(in));
+        user.setSellLimit(Amount.fromBinary(in));
+
+        return user;
+    }
+
     @Override
     public JsonObject toJson() {
         JsonObject json = new JsonObject();
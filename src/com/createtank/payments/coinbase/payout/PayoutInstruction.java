@@ -0,0 +1,125 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.payout;
+
+import com.createtank.payments.coinbase.models.Money;
+
+import java.util.UUID;
+
+/**
+ * One payment of a bulk payout: the same fields as a single sendMoney call, plus the idempotency key it is sent
+ * with.
+ *
+ * The key is created with the instruction and kept for its lifetime, so a payout whose outcome is unknown, for example
+ * after a timeout, can be submitted again with the same instructions without paying anyone twice.
+ */
+public class PayoutInstruction {
+
+    private final String to;
+    private final String amount;
+    private final String amountString;
+    private final String currency;
+    private final String notes;
+    private final String fee;
+    private final String referrerId;
+    private final String idempotencyKey;
+
+    /**
+     * Creates an instruction to send an amount of bitcoin
+     * @param to An email address or a bitcoin address
+     * @param amount A string amount of BTC, such as ‘1’ or ‘1.234567’
+     * @param notes Included in the email that the recipient receives, or null
+     */
+    public PayoutInstruction(String to, String amount, String notes) {
+        this(to, amount, null, null, notes, null, null, null);
+    }
+
+    /**
+     * @param to An email address or a bitcoin address
+     * @param amount A string amount of BTC, or null when amountString and currency are given
+     * @param amountString An amount in another currency, converted to BTC by coinbase, or null
+     * @param currency The ISO code of the currency of amountString, or null
+     * @param notes Included in the email that the recipient receives, or null
+     * @param fee The transaction fee, or null for the default
+     * @param referrerId The id of the referring user, or null
+     * @param idempotencyKey A key identifying this payment across submissions, or null to create a new one
+     */
+    public PayoutInstruction(String to, String amount, String amountString, String currency, String notes,
+                             String fee, String referrerId, String idempotencyKey) {
+        if (to == null)
+            throw new IllegalArgumentException("to is required");
+        if (amount == null && (amountString == null || currency == null))
+            throw new IllegalArgumentException("either amount or amountString and currency are required");
+
+        this.to = to;
+        this.amount = amount;
+        this.amountString = amountString;
+        this.currency = currency;
+        this.notes = notes;
+        this.fee = fee;
+        this.referrerId = referrerId;
+        this.idempotencyKey = idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Creates an instruction to send an amount in another currency, converted to BTC by coinbase
+     */
+    public static PayoutInstruction inCurrency(String to, String amountString, String currency, String notes) {
+        return new PayoutInstruction(to, null, amountString, currency, notes, null, null, null);
+    }
+
+    /**
+     * Creates an instruction to send an amount, converted to BTC by coinbase unless it is in BTC
+     */
+    public static PayoutInstruction of(String to, Money amount, String notes) {
+        return amount.isBtc() ? new PayoutInstruction(to, amount.toPlainString(), notes)
+                : inCurrency(to, amount.toPlainString(), amount.getCurrency(), notes);
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getAmount() {
+        return amount;
+    }
+
+    public String getAmountString() {
+        return amountString;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public String getFee() {
+        return fee;
+    }
+
+    public String getReferrerId() {
+        return referrerId;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.payout;
+
+/**
+ * Receives the result of each payout of a batch as soon as it is known. Calls are made one at a time, in the order
+ * payouts finish, so implementations need not be thread safe, but they should be quick since workers wait for them.
+ * An exception thrown by a listener is ignored and does not stop the batch.
+ */
+public interface PayoutListener {
+
+    /**
+     * @param result the result of one payout
+     * @param completed the number of payouts finished so far, including this one
+     * @param total the number of payouts in the batch
+     */
+    void onResult(PayoutResult result, int completed, int total);
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.payout;
+
+import com.createtank.payments.coinbase.models.Transaction;
+
+/**
+ * The outcome of one payout instruction: the transaction it created, or why it failed and whether submitting it
+ * again could succeed
+ */
+public class PayoutResult {
+
+    private final int index;
+    private final PayoutInstruction instruction;
+    private final Transaction transaction;
+    private final String failureReason;
+    private final Throwable error;
+    private final boolean retryable;
+
+    private PayoutResult(int index, PayoutInstruction instruction, Transaction transaction, String failureReason,
+                         Throwable error, boolean retryable) {
+        this.index = index;
+        this.instruction = instruction;
+        this.transaction = transaction;
+        this.failureReason = failureReason;
+        this.error = error;
+        this.retryable = retryable;
+    }
+
+    public static PayoutResult succeeded(int index, PayoutInstruction instruction, Transaction transaction) {
+        return new PayoutResult(index, instruction, transaction, null, null, false);
+    }
+
+    /**
+     * @param failureReason the reason given by coinbase or the message of the error
+     * @param error the error the payout failed with, or null if coinbase rejected it
+     * @param retryable whether submitting the instruction again could succeed
+     */
+    public static PayoutResult failed(int index, PayoutInstruction instruction, String failureReason, Throwable error,
+                                      boolean retryable) {
+        return new PayoutResult(index, instruction, null, failureReason, error, retryable);
+    }
+
+    /**
+     * @return the position of the instruction in the submitted list
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public PayoutInstruction getInstruction() {
+        return instruction;
+    }
+
+    public boolean isSuccess() {
+        return transaction != null;
+    }
+
+    /**
+     * @return the transaction the payout created, or null if it failed
+     */
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * @return why the payout failed, or null if it succeeded
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * @return the error the payout failed with, or null if it succeeded or coinbase rejected it
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return whether submitting the instruction again could succeed. Resubmitting reuses its idempotency key, so a
+     * payout that did go through before the failure is not made twice
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.ratelimit;
+
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the requests made with one credential so they stay under the api's limits instead of failing with 429s.
+ *
+ * Three controls apply before a request is sent:
+ * <ul>
+ *     <li>a token bucket caps the sustained request rate while allowing short bursts</li>
+ *     <li>an adaptive limit on requests in flight, halved when the server answers 429 or 503 and grown by about one
+ *     per round of successful responses (AIMD)</li>
+ *     <li>a pause honouring the server's Retry-After header, during which no request is sent</li>
+ * </ul>
+ *
+ * Share one limiter between all CoinbaseApi instances using the same credential, for example via
+ * {@link #forCredential(String)}.
+ */
+public class RateLimiter {
+
+    public static final double DEFAULT_PERMITS_PER_SECOND = 10;
+    public static final int DEFAULT_BURST = 20;
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ConcurrentMap<String, RateLimiter> SHARED = new ConcurrentHashMap<String, RateLimiter>();
+
+    /**
+     * Handed out by {@link #acquire()}; exactly one of its methods must be called once the request is done
+     */
+    public interface Permit {
+        /**
+         * Reports the response status, releasing the permit
+         * @param statusCode the HTTP status of the response
+         * @param retryAfter the Retry-After header of the response, or null
+         */
+        void complete(int statusCode, String retryAfter);
+
+        /**
+         * Releases the permit of a request that failed without a response
+         */
+        void abandon();
+    }
+
+    private final double permitsPerNano;
+    private final int burst;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private double tokens;
+    private long refilledAt;
+    private double concurrencyLimit;
+    private int inFlight;
+    private long pausedUntil;
+    private long nextDecreaseAt;
+    private boolean paused;
+
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Creates a limiter with {@link #DEFAULT_PERMITS_PER_SECOND}, {@link #DEFAULT_BURST} and
+     * {@link #DEFAULT_MAX_CONCURRENCY}
+     */
+    public RateLimiter() {
+        this(DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param permitsPerSecond the sustained request rate
+     * @param burst the number of requests that may be sent at once after a quiet period
+     * @param maxConcurrency the ceiling of the adaptive in-flight limit, which starts at half of it
+     */
+    public RateLimiter(double permitsPerSecond, int burst, int maxConcurrency) {
+        if (permitsPerSecond <= 0 || burst < 1 || maxConcurrency < 1)
+            throw new IllegalArgumentException("rate, burst and concurrency must be positive");
+
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.minConcurrency = 1;
+        this.maxConcurrency = maxConcurrency;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+        this.concurrencyLimit = Math.max(minConcurrency, maxConcurrency / 2.0);
+        this.nextDecreaseAt = refilledAt;
+    }
+
+    /**
+     * Returns the limiter shared by every caller using a credential, creating it with the default limits on first use
+     * @param credential the api key or OAuth client id the requests are made with
+     */
+    public static RateLimiter forCredential(String credential) {
+        RateLimiter limiter = SHARED.get(credential);
+        if (limiter != null)
+            return limiter;
+
+        SHARED.putIfAbsent(credential, new RateLimiter());
+        return SHARED.get(credential);
+    }
+
+    /**
+     * Waits until a request may be sent
+     * @return the permit to complete once the response status is known
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public Permit acquire() throws InterruptedIOException {
+        boolean waited = false;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+
+                long wait;
+                if (paused && pausedUntil - now > 0) {
+                    wait = pausedUntil - now;
+                } else if (inFlight >= (int) concurrencyLimit) {
+                    wait = Long.MAX_VALUE;
+                } else if (tokens < 1) {
+                    wait = (long) Math.ceil((1 - tokens) / permitsPerNano);
+                } else {
+                    paused = false;
+                    tokens -= 1;
+                    inFlight++;
+                    return new LimiterPermit();
+                }
+
+                if (!waited) {
+                    waited = true;
+                    throttled.increment();
+                }
+
+                if (wait == Long.MAX_VALUE)
+                    changed.await();
+                else
+                    changed.awaitNanos(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a permit if a request may be sent right away
+     * @return the permit to complete once the response status is known, or null if the request has to wait
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            refill(now);
+            if ((paused && pausedUntil - now > 0) || inFlight >= (int) concurrencyLimit || tokens < 1) {
+                throttled.increment();
+                return null;
+            }
+
+            paused = false;
+            tokens -= 1;
+            inFlight++;
+            return new LimiterPermit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+    }
+
+    private void release(int statusCode, String retryAfter) {
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+
+            if (statusCode == 429 || statusCode == 503) {
+                //one multiplicative decrease per round trip, however many requests of the burst fail
+                if (now - nextDecreaseAt >= 0) {
+                    concurrencyLimit = Math.max(minConcurrency, concurrencyLimit / 2);
+                    nextDecreaseAt = now + DECREASE_INTERVAL_NANOS;
+                }
+
+                long delay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+                if (delay > 0) {
+                    long until = now + TimeUnit.MILLISECONDS.toNanos(delay);
+                    if (!paused || until - pausedUntil > 0)
+                        pausedUntil = until;
+                    paused = true;
+                }
+            } else if (statusCode > 0 && statusCode < 500) {
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            }
+
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Parses a Retry-After header in either delta-seconds or HTTP-date form
+     * @return the delay in milliseconds, or 0 if the header is missing or malformed
+     */
+    public static long parseRetryAfter(String retryAfter, long nowMillis) {
+        if (retryAfter == null)
+            return 0;
+
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            //not delta-seconds
+        }
+
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - nowMillis);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the current adaptive limit on requests in flight
+     */
+    public int getConcurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) concurrencyLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many times a request had to wait before being sent
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    private final class LimiterPermit implements Permit {
+        private boolean released;
+
+        @Override
+        public void complete(int statusCode, String retryAfter) {
+            if (!released) {
+                released = true;
+                release(statusCode, retryAfter);
+            }
+        }
+
+        @Override
+        public void abandon() {
+            complete(0, null);
+        }
+    }
+}
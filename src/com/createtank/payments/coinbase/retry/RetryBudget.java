@@ -0,0 +1,100 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.retry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caps retries at a fraction of the requests being made, so that when coinbase is down the client adds at most that
+ * fraction on top of its normal traffic instead of multiplying it.
+ *
+ * Every first attempt deposits ratio tokens and every retry withdraws one. A small number of retries per second is
+ * always allowed so that a quiet client can still retry.
+ */
+public class RetryBudget {
+
+    public static final double DEFAULT_RATIO = 0.1;
+    public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    private final double ratio;
+    private final double minPerNano;
+    private final double capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private double balance;
+    private long refilledAt;
+
+    /**
+     * Creates a budget allowing retries of 10% of requests plus 10 per second
+     */
+    public RetryBudget() {
+        this(DEFAULT_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND);
+    }
+
+    /**
+     * @param ratio the fraction of requests that may be retried
+     * @param minRetriesPerSecond retries allowed regardless of the request volume
+     */
+    public RetryBudget(double ratio, int minRetriesPerSecond) {
+        if (ratio < 0 || minRetriesPerSecond < 0)
+            throw new IllegalArgumentException("ratio and minRetriesPerSecond must not be negative");
+
+        this.ratio = ratio;
+        this.minPerNano = (double) minRetriesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, minRetriesPerSecond) + 100 * ratio;
+        this.balance = minRetriesPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Records a first attempt
+     */
+    public void onRequest() {
+        lock.lock();
+        try {
+            refill();
+            balance = Math.min(capacity, balance + ratio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws one retry from the budget
+     * @return whether the retry may be made
+     */
+    public boolean tryRetry() {
+        lock.lock();
+        try {
+            refill();
+            if (balance < 1)
+                return false;
+
+            balance -= 1;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        balance = Math.min(capacity, balance + (now - refilledAt) * minPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.retry;
+
+import com.createtank.payments.coinbase.exceptions.CircuitOpenException;
+import com.createtank.payments.coinbase.exceptions.ConnectionPoolClosedException;
+import com.createtank.payments.coinbase.exceptions.HttpResponseException;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which failed requests are retried and how long to wait before each retry.
+ *
+ * Only requests that are safe to repeat are retried: GETs and DELETEs, and writes carrying an idempotency key, which
+ * coinbase uses to recognise a repeated send instead of moving the money twice. They are retried after network
+ * errors, timeouts, 5xx responses and 429s, with exponentially growing delays and full jitter. A 429 or 503 is never
+ * retried sooner than its Retry-After. Every retry is also drawn from a {@link RetryBudget}, shared by all requests
+ * using this policy.
+ */
+public class RetryPolicy {
+
+    /**
+     * The header carrying the idempotency key of a write
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * The param carrying the idempotency key of a transaction write, which coinbase honours. Only writes carrying
+     * their key in it are marked with {@link #IDEMPOTENCY_KEY_HEADER}
+     */
+    public static final String IDEMPOTENCY_KEY_PARAM = "transaction[idem]";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    /**
+     * Never retries
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, new RetryBudget(0, 0));
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy();
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final RetryBudget budget;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    /**
+     * Creates a policy with {@link #DEFAULT_MAX_ATTEMPTS} attempts, delays from {@link #DEFAULT_BASE_DELAY_MILLIS} up
+     * to {@link #DEFAULT_MAX_DELAY_MILLIS} and a default {@link RetryBudget}
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, new RetryBudget());
+    }
+
+    /**
+     * @param maxAttempts the maximum number of attempts per request, including the first
+     * @param baseDelayMillis the delay ceiling before the first retry, doubled for every further retry
+     * @param maxDelayMillis the largest delay ceiling
+     * @param budget the budget retries are drawn from
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, RetryBudget budget) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(baseDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.budget = budget;
+    }
+
+    /**
+     * @return the policy CoinbaseApi instances use unless configured otherwise. Its budget is shared by all of them
+     */
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return whether a request may be sent more than once: GETs, DELETEs and writes with an idempotency key coinbase
+     * honours
+     */
+    public boolean isRetryable(String verb, boolean hasIdempotencyKey) {
+        return hasIdempotencyKey || verb.equals("GET") || verb.equals("DELETE");
+    }
+
+    /**
+     * @return whether a failure could go away on its own. Responses that were read but could not be parsed, client
+     * errors, interrupts, requests rejected by an open circuit and requests through a closed connection pool are final
+     */
+    public boolean isTransient(IOException error) {
+        if (error instanceof HttpResponseException) {
+            int code = ((HttpResponseException) error).getStatusCode();
+            return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+        }
+
+        if (error instanceof MalformedJsonException || error instanceof CircuitOpenException
+                || error instanceof ConnectionPoolClosedException)
+            return false;
+
+        return !(error instanceof InterruptedIOException) || error instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Records a first attempt with the retry budget
+     */
+    public void onRequest() {
+        budget.onRequest();
+    }
+
+    /**
+     * Decides whether to retry a failed attempt
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @param error the failure
+     * @return the delay before the retry in nanoseconds, or -1 to give up and surface the failure
+     */
+    public long retryDelay(int attempt, IOException error) {
+        if (attempt >= maxAttempts || !isTransient(error))
+            return -1;
+
+        if (!budget.tryRetry()) {
+            budgetExhausted.increment();
+            return -1;
+        }
+
+        retries.increment();
+
+        long ceiling = Math.min(maxDelayNanos, baseDelayNanos << Math.min(attempt - 1, 30));
+        long delay = ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+
+        if (error instanceof HttpResponseException) {
+            long retryAfter = TimeUnit.MILLISECONDS.toNanos(((HttpResponseException) error).getRetryAfterMillis());
+            delay = Math.max(delay, retryAfter);
+        }
+
+        return delay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return the number of retries made under this policy
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the number of retries given up because the budget was spent
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.sum();
+    }
+}
@@ -0,0 +1,582 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.store;
+
+import com.createtank.payments.coinbase.models.BinaryStreams;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.createtank.payments.coinbase.models.Transfer;
+import com.createtank.payments.coinbase.sync.SyncWatermark;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded on-disk store of {@link Transaction} and {@link Transfer} records, so that reports can be answered
+ * locally instead of by paging through the api.
+ *
+ * Records are appended to a single data file in the compact binary form of the models, each one length-prefixed and
+ * checksummed; a torn record at the end, left by a crash in the middle of an append, is truncated on open. An
+ * in-memory index maps every transaction id and transfer code to the offset of its latest record, and a sorted index
+ * by creation time answers range scans by reading only the matching records. Putting a record that did not change
+ * appends nothing, so syncing the same history again is cheap. Superseded records are dropped by {@link #compact()},
+ * which runs on its own once they take up most of the file. The store also keeps the {@link SyncWatermark} of the
+ * last incremental sync into it.
+ *
+ * Reads may run concurrently with each other; writes are serialized. Appends are written straight to the file but
+ * only forced to disk by {@link #flush()} and {@link #close()}.
+ */
+public class TransactionStore implements Closeable {
+
+    private static final byte TRANSACTION = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte METADATA = 3;
+    private static final String WATERMARK = "watermark";
+    private static final int HEADER = 8;
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final long MIN_COMPACT_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_SCAN_READ = 1024 * 1024;
+
+    private final File file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Index transactions = new Index();
+    private final Index transfers = new Index();
+    private final Index metadata = new Index();
+
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+    private int compactions;
+    private boolean closed;
+
+    /**
+     * Opens or creates a store and loads its index
+     */
+    public TransactionStore(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //region reads
+    public Transaction getTransaction(String id) throws IOException {
+        byte[] payload = read(transactions, id);
+        return payload != null ? Transaction.fromBinary(payloadInput(payload)) : null;
+    }
+
+    public Transfer getTransfer(String code) throws IOException {
+        byte[] payload = read(transfers, code);
+        return payload != null ? Transfer.fromBinary(payloadInput(payload)) : null;
+    }
+
+    /**
+     * @param fromMillis the start of the range, inclusive, in milliseconds since the epoch
+     * @param toMillis the end of the range, exclusive
+     * @return the transactions created in the range, oldest first
+     */
+    public List<Transaction> getTransactions(long fromMillis, long toMillis) throws IOException {
+        return getTransactions(fromMillis, toMillis, null);
+    }
+
+    /**
+     * @param filter the transactions to return, or null for all of them
+     * @return the transactions created in the range that match the filter, oldest first
+     */
+    public List<Transaction> getTransactions(long fromMillis, long toMillis, Predicate<Transaction> filter)
+            throws IOException {
+        List<Transaction> result = new ArrayList<Transaction>();
+        for (byte[] payload : scan(transactions, fromMillis, toMillis)) {
+            Transaction transaction = Transaction.fromBinary(payloadInput(payload));
+            if (filter == null || filter.test(transaction))
+                result.add(transaction);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the transfers created in the range, oldest first
+     */
+    public List<Transfer> getTransfers(long fromMillis, long toMillis) throws IOException {
+        return getTransfers(fromMillis, toMillis, null);
+    }
+
+    public List<Transfer> getTransfers(long fromMillis, long toMillis, Predicate<Transfer> filter)
+            throws IOException {
+        List<Transfer> result = new ArrayList<Transfer>();
+        for (byte[] payload : scan(transfers, fromMillis, toMillis)) {
+            Transfer transfer = Transfer.fromBinary(payloadInput(payload));
+            if (filter == null || filter.test(transfer))
+                result.add(transfer);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the watermark of the last incremental sync into this store, or null if there was none
+     */
+    public SyncWatermark getWatermark() throws IOException {
+        byte[] payload = read(metadata, WATERMARK);
+        if (payload == null)
+            return null;
+
+        String json = BinaryStreams.readString(payloadInput(payload));
+        return SyncWatermark.fromJson(new JsonParser().parse(json).getAsJsonObject());
+    }
+
+    public int getTransactionCount() {
+        lock.readLock().lock();
+        try {
+            return transactions.records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTransferCount() {
+        lock.readLock().lock();
+        try {
+            return transfers.records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCompactionCount() {
+        lock.readLock().lock();
+        try {
+            return compactions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    //endregion
+
+    //region writes
+    /**
+     * Stores a transaction, replacing the one with the same id
+     * @return whether anything changed; putting an identical transaction writes nothing
+     * @throws IllegalArgumentException if the transaction has no id
+     */
+    public boolean putTransaction(Transaction transaction) throws IOException {
+        if (transaction.getId() == null)
+            throw new IllegalArgumentException("transaction has no id");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        transaction.toBinary(new DataOutputStream(bytes));
+        return put(TRANSACTION, transactions, transaction.getId(), transaction.getCreatedAtMillis(),
+                bytes.toByteArray());
+    }
+
+    /**
+     * Stores a transfer, replacing the one with the same code
+     * @return whether anything changed; putting an identical transfer writes nothing
+     * @throws IllegalArgumentException if the transfer has no code
+     */
+    public boolean putTransfer(Transfer transfer) throws IOException {
+        if (transfer.getCode() == null)
+            throw new IllegalArgumentException("transfer has no code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        transfer.toBinary(new DataOutputStream(bytes));
+        return put(TRANSFER, transfers, transfer.getCode(), transfer.getCreatedAtMillis(), bytes.toByteArray());
+    }
+
+    /**
+     * Stores the watermark to resume incremental syncs from
+     */
+    public void setWatermark(SyncWatermark watermark) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        BinaryStreams.writeString(new DataOutputStream(bytes), watermark.toJson().toString());
+        put(METADATA, metadata, WATERMARK, -1, bytes.toByteArray());
+    }
+
+    /**
+     * Forces everything written so far to disk
+     */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            channel.force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the data file with only the latest record of every transaction and transfer, replacing it atomically
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            rewrite();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+
+            closed = true;
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    //endregion
+
+    //region internals
+    private boolean put(byte kind, Index index, String key, long createdAt, byte[] payload) throws IOException {
+        byte[] body = encode(kind, key, createdAt, payload);
+        int crc = checksum(body);
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            Record current = index.records.get(key);
+            if (current != null && current.crc == crc && current.length == body.length
+                    && Arrays.equals(readBody(current), body))
+                return false;
+
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER + body.length);
+            buffer.putInt(body.length).putInt(crc).put(body).flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer, offset + buffer.position());
+
+            size += buffer.limit();
+            index.put(key, new Record(offset, body.length, crc, createdAt, body.length - payload.length));
+            if (current != null)
+                liveBytes -= HEADER + current.length;
+            liveBytes += HEADER + body.length;
+
+            if (size > MIN_COMPACT_BYTES && liveBytes < size / 2)
+                rewrite();
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private byte[] read(Index index, String key) throws IOException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            Record record = index.records.get(key);
+            return record != null ? payloadOf(record, readBody(record)) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<byte[]> scan(Index index, long fromMillis, long toMillis) throws IOException {
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        if (fromMillis >= toMillis)
+            return payloads;
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            List<Record> run = new ArrayList<Record>();
+            long runEnd = -1;
+            for (Set<String> keys : index.byCreatedAt.subMap(fromMillis, true, toMillis, false).values()) {
+                for (String key : keys) {
+                    Record record = index.records.get(key);
+                    if (record.offset != runEnd || runEnd - run.get(0).offset >= MAX_SCAN_READ) {
+                        readRun(run, payloads);
+                        run.clear();
+                    }
+                    run.add(record);
+                    runEnd = record.offset + HEADER + record.length;
+                }
+            }
+            readRun(run, payloads);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return payloads;
+    }
+
+    /**
+     * Reads records that lie back to back in the file with a single read. Compaction writes records in creation
+     * order, so a range scan over a compacted store reads a few large runs instead of every record on its own
+     */
+    private void readRun(List<Record> run, List<byte[]> payloads) throws IOException {
+        if (run.isEmpty())
+            return;
+
+        Record first = run.get(0);
+        Record last = run.get(run.size() - 1);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (last.offset + HEADER + last.length - first.offset));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, first.offset + buffer.position()) < 0)
+                throw new EOFException("Record at " + first.offset + " runs past the end of " + file);
+        }
+
+        byte[] bytes = buffer.array();
+        for (Record record : run) {
+            int start = (int) (record.offset - first.offset) + HEADER + record.payloadStart;
+            payloads.add(Arrays.copyOfRange(bytes, start, start + record.length - record.payloadStart));
+        }
+    }
+
+    private byte[] readBody(Record record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, record.offset + HEADER + buffer.position()) < 0)
+                throw new EOFException("Record at " + record.offset + " runs past the end of " + file);
+        }
+
+        return buffer.array();
+    }
+
+    private static byte[] payloadOf(Record record, byte[] body) {
+        return Arrays.copyOfRange(body, record.payloadStart, body.length);
+    }
+
+    private static DataInputStream payloadInput(byte[] payload) {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Encodes the body of a record: its kind, creation time, key and the model's binary form
+     */
+    private static byte[] encode(byte kind, String key, long createdAt, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        out.writeLong(createdAt);
+        BinaryStreams.writeString(out, key);
+        out.write(payload);
+
+        return bytes.toByteArray();
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Loads the index from the data file, truncating it after the last intact record
+     */
+    private void recover() throws IOException {
+        long length = channel.size();
+        long offset = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), 64 * 1024));
+        while (offset + HEADER <= length) {
+            int bodyLength = in.readInt();
+            int crc = in.readInt();
+            if (bodyLength <= 0 || bodyLength > MAX_RECORD || offset + HEADER + bodyLength > length)
+                break;
+
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            if (checksum(body) != crc)
+                break;
+
+            DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body));
+            byte kind = fields.readByte();
+            long createdAt = fields.readLong();
+            String key = BinaryStreams.readString(fields);
+            Index index = kind == TRANSACTION ? transactions : kind == TRANSFER ? transfers
+                    : kind == METADATA ? metadata : null;
+            if (index == null || key == null)
+                break;
+
+            Record current = index.records.get(key);
+            if (current != null)
+                liveBytes -= HEADER + current.length;
+            index.put(key, new Record(offset, bodyLength, crc, createdAt, bodyLength - fields.available()));
+            liveBytes += HEADER + bodyLength;
+            offset += HEADER + bodyLength;
+        }
+
+        if (offset < length) {
+            channel.truncate(offset);
+            channel.force(false);
+        }
+        size = offset;
+    }
+
+    /**
+     * Copies the live records into a new file, which then replaces the data file
+     */
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Index compactedTransactions = new Index();
+        Index compactedTransfers = new Index();
+        Index compactedMetadata = new Index();
+        long offset = 0;
+        FileChannel newChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            offset = copyLive(transactions, compactedTransactions, newChannel, offset);
+            offset = copyLive(transfers, compactedTransfers, newChannel, offset);
+            offset = copyLive(metadata, compactedMetadata, newChannel, offset);
+            newChannel.force(false);
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+        } catch (IOException | RuntimeException e) {
+            //the old file and channel stay in use
+            newChannel.close();
+            tmp.delete();
+            throw e;
+        }
+
+        FileChannel oldChannel = channel;
+        channel = newChannel;
+        transactions.replaceWith(compactedTransactions);
+        transfers.replaceWith(compactedTransfers);
+        metadata.replaceWith(compactedMetadata);
+        size = offset;
+        liveBytes = offset;
+        compactions++;
+        oldChannel.close();
+    }
+
+    private long copyLive(Index from, Index to, FileChannel out, long offset) throws IOException {
+        for (Set<String> keys : from.byCreatedAt.values()) {
+            for (String key : keys) {
+                Record record = from.records.get(key);
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER + record.length);
+                buffer.putInt(record.length).putInt(record.crc).put(readBody(record)).flip();
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+
+                to.put(key, new Record(offset, record.length, record.crc, record.createdAt, record.payloadStart));
+                offset += HEADER + record.length;
+            }
+        }
+
+        return offset;
+    }
+
+    private void syncDirectory() {
+        File directory = file.getAbsoluteFile().getParentFile();
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not every platform can sync a directory; the rename itself is still atomic
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Transaction store closed: " + file);
+    }
+    //endregion
+
+    /**
+     * The location of the latest record of a transaction or transfer
+     */
+    private static final class Record {
+        final long offset;
+        final int length;
+        final int crc;
+        final long createdAt;
+        final int payloadStart;
+
+        Record(long offset, int length, int crc, long createdAt, int payloadStart) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.createdAt = createdAt;
+            this.payloadStart = payloadStart;
+        }
+    }
+
+    /**
+     * Latest records by key, and their keys by creation time. Records of unknown creation time are indexed at -1
+     */
+    private static final class Index {
+        Map<String, Record> records = new HashMap<String, Record>();
+        NavigableMap<Long, Set<String>> byCreatedAt = new TreeMap<Long, Set<String>>();
+
+        void put(String key, Record record) {
+            Record previous = records.put(key, record);
+            if (previous != null && previous.createdAt != record.createdAt) {
+                Set<String> keys = byCreatedAt.get(previous.createdAt);
+                keys.remove(key);
+                if (keys.isEmpty())
+                    byCreatedAt.remove(previous.createdAt);
+            }
+
+            Set<String> keys = byCreatedAt.get(record.createdAt);
+            if (keys == null) {
+                keys = new LinkedHashSet<String>();
+                byCreatedAt.put(record.createdAt, keys);
+            }
+            keys.add(key);
+        }
+
+        void replaceWith(Index other) {
+            records = other.records;
+            byCreatedAt = other.byCreatedAt;
+        }
+    }
+}
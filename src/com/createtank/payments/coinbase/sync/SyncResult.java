@@ -0,0 +1,60 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.sync;
+
+import com.createtank.payments.coinbase.models.Transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an incremental transaction sync
+ */
+public class SyncResult {
+    private final List<Transaction> transactions;
+    private final SyncWatermark watermark;
+    private final int requestCount;
+
+    public SyncResult(List<Transaction> transactions, SyncWatermark watermark, int requestCount) {
+        this.transactions = Collections.unmodifiableList(transactions);
+        this.watermark = watermark;
+        this.requestCount = requestCount;
+    }
+
+    /**
+     * @return the transactions created since the previous watermark, newest first, followed by the pending ones it
+     * tracked that have changed
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return the watermark to pass to the next sync
+     */
+    public SyncWatermark getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the number of requests the sync made
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.sync;
+
+import com.createtank.payments.coinbase.models.IJsonSerializable;
+import com.createtank.payments.coinbase.models.Transaction;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How far an incremental transaction sync has read: the newest transactions seen, and the pending transactions seen,
+ * which are the ones that may still change. Immutable; persist it with {@link #toJson()} between polls.
+ */
+public class SyncWatermark implements IJsonSerializable {
+
+    private final Set<String> newestIds;
+    private final long newestCreatedAtMillis;
+    private final List<String> pendingIds;
+    private final long oldestPendingCreatedAtMillis;
+
+    /**
+     * @param newestIds the ids of the newest transactions seen, all created at the same time
+     * @param newestCreatedAtMillis their creation time in milliseconds since the epoch, or -1 if unknown
+     * @param pendingIds the ids of the pending transactions seen, newest first
+     * @param oldestPendingCreatedAtMillis the creation time of the oldest of them, or -1 if unknown
+     */
+    public SyncWatermark(Collection<String> newestIds, long newestCreatedAtMillis, Collection<String> pendingIds,
+                         long oldestPendingCreatedAtMillis) {
+        this.newestIds = Collections.unmodifiableSet(new LinkedHashSet<String>(newestIds));
+        this.newestCreatedAtMillis = newestCreatedAtMillis;
+        this.pendingIds = Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(pendingIds)));
+        this.oldestPendingCreatedAtMillis = oldestPendingCreatedAtMillis;
+    }
+
+    public Set<String> getNewestIds() {
+        return newestIds;
+    }
+
+    public long getNewestCreatedAtMillis() {
+        return newestCreatedAtMillis;
+    }
+
+    public List<String> getPendingIds() {
+        return pendingIds;
+    }
+
+    /**
+     * @return the creation time of the oldest pending transaction, which tells how far back the transaction list has
+     * to be read to find them all, or -1 if unknown
+     */
+    public long getOldestPendingCreatedAtMillis() {
+        return oldestPendingCreatedAtMillis;
+    }
+
+    /**
+     * @return whether the transaction was already seen when the watermark was taken: it is one of the newest ones
+     * seen, or older than them
+     */
+    public boolean covers(Transaction transaction) {
+        if (newestIds.contains(transaction.getId()))
+            return true;
+
+        long createdAt = transaction.getCreatedAtMillis();
+        return createdAt >= 0 && createdAt < newestCreatedAtMillis;
+    }
+
+    @Override
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        JsonArray newest = new JsonArray();
+        for (String id : newestIds)
+            newest.add(new JsonPrimitive(id));
+        json.add("newest_ids", newest);
+        json.addProperty("newest_created_at", newestCreatedAtMillis);
+
+        JsonArray pending = new JsonArray();
+        for (String id : pendingIds)
+            pending.add(new JsonPrimitive(id));
+        json.add("pending_ids", pending);
+        json.addProperty("oldest_pending_created_at", oldestPendingCreatedAtMillis);
+
+        return json;
+    }
+
+    public static SyncWatermark fromJson(JsonObject json) {
+        JsonElement newestCreatedAt = json.get("newest_created_at");
+        JsonElement oldestPendingCreatedAt = json.get("oldest_pending_created_at");
+
+        return new SyncWatermark(stringsOf(json, "newest_ids"),
+                newestCreatedAt != null ? newestCreatedAt.getAsLong() : -1, stringsOf(json, "pending_ids"),
+                oldestPendingCreatedAt != null ? oldestPendingCreatedAt.getAsLong() : -1);
+    }
+
+    private static List<String> stringsOf(JsonObject json, String field) {
+        List<String> strings = new ArrayList<String>();
+        if (json.has(field)) {
+            for (JsonElement element : json.getAsJsonArray(field))
+                strings.add(element.getAsString());
+        }
+
+        return strings;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+
+package com.createtank.payments.coinbase.transport;
+
+/**
+ * Lets one thread abort a request another thread is sending. The transport registers how to abort the request, for
+ * example by closing its connection, and whoever decides the request is no longer needed calls {@link #abort()}.
+ * A request registered after the signal was aborted is aborted straight away.
+ */
+public class AbortSignal {
+
+    private Runnable action;
+    private boolean aborted;
+
+    /**
+     * Registers how to abort the request in flight, replacing any earlier registration
+     */
+    public void onAbort(Runnable action) {
+        synchronized (this) {
+            if (!aborted) {
+                this.action = action;
+                return;
+            }
+        }
+
+        action.run();
+    }
+
+    /**
+     * Aborts the request in flight, if any, and every request registered from now on
+     */
+    public void abort() {
+        Runnable action;
+        synchronized (this) {
+            if (aborted)
+                return;
+
+            aborted = true;
+            action = this.action;
+            this.action = null;
+        }
+
+        if (action != null)
+            action.run();
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import com.createtank.payments.coinbase.HttpConnectionPool;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends requests with apache's HttpClient, either through a {@link HttpConnectionPool} or over a new connection per
+ * request when no pool is given
+ */
+public class HttpClientTransport implements Transport {
+
+    private final HttpConnectionPool pool;
+
+    /**
+     * Creates a transport that opens a new connection for every request
+     */
+    public HttpClientTransport() {
+        this(null);
+    }
+
+    /**
+     * @param pool the pool to take connections from, or null to open a new connection for every request
+     */
+    public HttpClientTransport(HttpConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        return execute(request, null);
+    }
+
+    /**
+     * Sends a request that is aborted by closing its connection, which fails a blocked read on another thread
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request, AbortSignal signal) throws IOException {
+        final CloseableHttpClient client = pool != null ? pool.getClient() : HttpClientBuilder.create().build();
+        final HttpUriRequest httpRequest = toHttpRequest(request);
+        if (signal != null)
+            signal.onAbort(httpRequest::abort);
+
+        final CloseableHttpResponse response;
+        try {
+            response = client.execute(httpRequest);
+        } catch (IOException e) {
+            release(client);
+            throw e;
+        } catch (RuntimeException e) {
+            release(client);
+            throw e;
+        }
+
+        return toTransportResponse(response, new Closeable() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    response.close();
+                } finally {
+                    release(client);
+                }
+            }
+        });
+    }
+
+    private void release(CloseableHttpClient client) {
+        if (pool != null)
+            return;
+
+        try {
+            client.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+    }
+
+    /**
+     * Converts a request into its HttpClient equivalent
+     */
+    public static HttpUriRequest toHttpRequest(TransportRequest request) {
+        RequestBuilder builder = RequestBuilder.create(request.getVerb()).setUri(request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+            builder.addHeader(header.getKey(), header.getValue());
+
+        if (request.getBody() != null)
+            builder.setEntity(new ByteArrayEntity(request.getBody()));
+
+        return builder.build();
+    }
+
+    /**
+     * Wraps an HttpClient response
+     * @param response the response to wrap
+     * @param release closed when the wrapper is closed, or null to just consume the entity
+     */
+    public static TransportResponse toTransportResponse(final HttpResponse response, Closeable release)
+            throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Header header : response.getAllHeaders())
+            headers.put(header.getName(), header.getValue());
+
+        HttpEntity entity = response.getEntity();
+        InputStream body = entity != null ? entity.getContent() : null;
+
+        if (release == null) {
+            release = new Closeable() {
+                @Override
+                public void close() {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+            };
+        }
+
+        return new TransportResponse(response.getStatusLine().getStatusCode(), headers, body, release);
+    }
+}
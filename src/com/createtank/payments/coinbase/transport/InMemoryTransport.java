@@ -0,0 +1,159 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves canned responses from memory instead of the network, optionally after a simulated latency. Useful for
+ * measuring and tuning the rest of the client (request encoding, auth, parsing and model building) in isolation.
+ *
+ * Responses are registered per verb and path, where the path is relative to the api base url, for example
+ * "transactions" or "transactions/send_money". The OAuth token endpoint is "oauth/token". A path ending in "*"
+ * matches any path with that prefix. Unmatched requests get a 404.
+ */
+public class InMemoryTransport implements Transport {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String API_PATH = "/api/v1/";
+
+    private final Map<String, CannedResponse> exact = new ConcurrentHashMap<String, CannedResponse>();
+    private final Map<String, CannedResponse> prefixes = new ConcurrentHashMap<String, CannedResponse>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile TransportRequest lastRequest;
+
+    private static class CannedResponse {
+        final int statusCode;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        CannedResponse(int statusCode, Map<String, String> headers, byte[] body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Registers a 200 response
+     */
+    public InMemoryTransport respond(String verb, String path, String body) {
+        return respond(verb, path, 200, Collections.<String, String>emptyMap(), body.getBytes(UTF_8));
+    }
+
+    /**
+     * Registers a response
+     * @param verb the HTTP verb to match
+     * @param path the path relative to the api base url, optionally ending in "*" to match a prefix
+     * @param statusCode the status to answer with
+     * @param headers the response headers
+     * @param body the response body
+     * @return this transport
+     */
+    public InMemoryTransport respond(String verb, String path, int statusCode, Map<String, String> headers,
+                                     byte[] body) {
+        CannedResponse response = new CannedResponse(statusCode, headers, body);
+        if (path.endsWith("*"))
+            prefixes.put(verb + " " + path.substring(0, path.length() - 1), response);
+        else
+            exact.put(verb + " " + path, response);
+
+        return this;
+    }
+
+    /**
+     * Delays every response
+     * @param latency the fixed delay
+     * @param jitter a random extra delay of up to this much
+     * @param unit the unit of latency and jitter
+     * @return this transport
+     */
+    public InMemoryTransport setLatency(long latency, long jitter, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+        this.jitterNanos = unit.toNanos(jitter);
+        return this;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public TransportRequest getLastRequest() {
+        return lastRequest;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        requestCount.incrementAndGet();
+        lastRequest = request;
+
+        long delay = latencyNanos;
+        if (jitterNanos > 0)
+            delay += ThreadLocalRandom.current().nextLong(jitterNanos);
+
+        if (delay > 0) {
+            long deadline = System.nanoTime() + delay;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+            }
+        }
+
+        CannedResponse canned = find(request.getVerb() + " " + pathOf(request.getUrl()));
+        if (canned == null)
+            return new TransportResponse(404, null, null, null);
+
+        return new TransportResponse(canned.statusCode, canned.headers, new ByteArrayInputStream(canned.body), null);
+    }
+
+    private CannedResponse find(String key) {
+        CannedResponse response = exact.get(key);
+        if (response != null)
+            return response;
+
+        String longest = null;
+        for (String prefix : prefixes.keySet()) {
+            if (key.startsWith(prefix) && (longest == null || prefix.length() > longest.length()))
+                longest = prefix;
+        }
+
+        return longest != null ? prefixes.get(longest) : null;
+    }
+
+    private static String pathOf(String url) {
+        String path = URI.create(url).getRawPath();
+        if (path.startsWith(API_PATH))
+            return path.substring(API_PATH.length());
+
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import java.io.IOException;
+
+/**
+ * Sends a fully built request over the wire and hands back the raw response. RequestClient builds every request,
+ * handles auth and decodes responses on top of a Transport, so implementations only have to move bytes.
+ *
+ * Implementations must be thread safe.
+ */
+public interface Transport {
+
+    /**
+     * Sends a request
+     * @param request the request to send
+     * @return the response. The caller must close it once the body has been read
+     * @throws IOException if no response could be obtained
+     */
+    public TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Sends a request that another thread may abort through the given signal, failing this call or the read of the
+     * response body with an IOException. Transports that cannot abort a request in flight let it run to completion.
+     * @param request the request to send
+     * @param signal the signal the request is aborted with, or null if it is never aborted
+     * @return the response. The caller must close it once the body has been read
+     * @throws IOException if no response could be obtained or the request was aborted
+     */
+    public default TransportResponse execute(TransportRequest request, AbortSignal signal) throws IOException {
+        return execute(request);
+    }
+}
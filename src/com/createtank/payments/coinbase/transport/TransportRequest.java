@@ -0,0 +1,85 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable, fully encoded HTTP request
+ */
+public class TransportRequest {
+
+    private final String verb;
+    private final String url;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    /**
+     * @param verb the HTTP verb, such as GET or POST
+     * @param url the absolute url, including any query string
+     * @param headers the request headers, including Content-Type when there is a body
+     * @param body the encoded request body, or null for none
+     */
+    public TransportRequest(String verb, String url, Map<String, String> headers, byte[] body) {
+        this.verb = verb;
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        this.body = body;
+    }
+
+    public String getVerb() {
+        return verb;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return the encoded body, or null if the request has none. The array must not be modified
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public int getBodyLength() {
+        return body != null ? body.length : 0;
+    }
+
+    /**
+     * @return a copy of this request with a header added or replaced, or removed when value is null
+     */
+    public TransportRequest withHeader(String name, String value) {
+        Map<String, String> copy = new LinkedHashMap<String, String>(headers);
+        if (value != null)
+            copy.put(name, value);
+        else
+            copy.remove(name);
+
+        return new TransportRequest(verb, url, copy, body);
+    }
+}
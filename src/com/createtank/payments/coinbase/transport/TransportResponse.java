@@ -0,0 +1,79 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A raw HTTP response whose body is read as a stream. Closing the response releases the underlying connection.
+ */
+public class TransportResponse implements Closeable {
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final InputStream body;
+    private final Closeable release;
+
+    /**
+     * @param statusCode the HTTP status code
+     * @param headers the response headers. Names are matched case-insensitively
+     * @param body the response body, or null if there is none
+     * @param release closed along with the response to release the connection, or null
+     */
+    public TransportResponse(int statusCode, Map<String, String> headers, InputStream body, Closeable release) {
+        this.statusCode = statusCode;
+        Map<String, String> copy = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null)
+            copy.putAll(headers);
+
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+        this.release = release;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            body.close();
+        } finally {
+            if (release != null)
+                release.close();
+        }
+    }
+}
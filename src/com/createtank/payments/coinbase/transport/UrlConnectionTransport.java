@@ -0,0 +1,73 @@
+/*
+Copyright 2013 createTank L.L.C.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.createtank.payments.coinbase.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends requests with HttpURLConnection, for environments such as Google App Engine where HttpClient is not
+ * available
+ */
+public class UrlConnectionTransport implements Transport {
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        return execute(request, null);
+    }
+
+    /**
+     * Sends a request that is aborted by disconnecting it, which closes the socket under a blocked read
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request, AbortSignal signal) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        conn.setRequestMethod(request.getVerb());
+        if (signal != null)
+            signal.onAbort(conn::disconnect);
+
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+            conn.setRequestProperty(header.getKey(), header.getValue());
+
+        if (request.getBody() != null) {
+            conn.setDoOutput(true);
+            OutputStream out = conn.getOutputStream();
+            out.write(request.getBody());
+            out.flush();
+            out.close();
+        }
+
+        int code = conn.getResponseCode();
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty())
+                headers.put(header.getKey(), header.getValue().get(0));
+        }
+
+        InputStream body = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+
+        //closing the body stream returns the connection to the keep-alive cache
+        return new TransportResponse(code, headers, body, null);
+    }
+}